@@ -0,0 +1,289 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.InstrumentationTestCase;
+import android.test.mock.MockContentProvider;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the {@link DismissableCursorAdapter} against an in-process provider stand-in. The adapter
+ * is only used on the main thread. It applies its batches directly to the provider and commits
+ * synchronously, so each step only has to wait for the main thread to become idle.
+ */
+public class DismissableCursorAdapterTest extends InstrumentationTestCase {
+
+    private static final String AUTHORITY = "de.timroes.android.listview.test";
+    private static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/rows");
+
+    /**
+     * Holds the ids 1 to 10 and counts the batches applied to it.
+     */
+    private static class RowsProvider extends MockContentProvider {
+
+        final List<Long> ids = new ArrayList<Long>();
+        int batches;
+        boolean failing;
+
+        RowsProvider() {
+            for(long id = 1; id <= 10; id++) {
+                ids.add(id);
+            }
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+            MatrixCursor cursor = new MatrixCursor(new String[] { "_id" });
+            for(Long id : ids) {
+                cursor.addRow(new Object[] { id });
+            }
+            return cursor;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return ids.remove(ContentUris.parseId(uri)) ? 1 : 0;
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            batches++;
+            if(failing) {
+                throw new OperationApplicationException("provider is failing");
+            }
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for(int i = 0; i < results.length; i++) {
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            return results;
+        }
+
+    }
+
+    /**
+     * Applies its batches to the {@link RowsProvider} on the calling thread.
+     */
+    private static class TestAdapter extends DismissableCursorAdapter {
+
+        final RowsProvider provider;
+        int notifications;
+        Exception failure;
+
+        TestAdapter(Context context, RowsProvider provider) {
+            super(context, provider.query(CONTENT_URI, null, null, null, null), 0, AUTHORITY, CONTENT_URI);
+            this.provider = provider;
+        }
+
+        void requery() {
+            swapCursor(provider.query(CONTENT_URI, null, null, null, null)).close();
+        }
+
+        @Override
+        protected ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            return provider.applyBatch(operations);
+        }
+
+        @Override
+        protected void notifyChange() {
+            notifications++;
+        }
+
+        @Override
+        protected void executeCommit(Runnable commit) {
+            commit.run();
+        }
+
+        @Override
+        protected void onCommitFailed(Exception e) {
+            failure = e;
+        }
+
+        @Override
+        public View newView(Context context, Cursor cursor, ViewGroup parent) {
+            return new TextView(context);
+        }
+
+        @Override
+        public void bindView(View view, Context context, Cursor cursor) { }
+
+    }
+
+    private TestAdapter mAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter = new TestAdapter(getInstrumentation().getTargetContext(), new RowsProvider());
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mAdapter = null;
+        super.tearDown();
+    }
+
+    /**
+     * Runs the given code on the main thread and waits until the flushes and commit results
+     * posted meanwhile have been handled, too.
+     *
+     * @param runnable The code to run.
+     */
+    private void onMainThread(Runnable runnable) {
+        getInstrumentation().runOnMainSync(runnable);
+        getInstrumentation().waitForIdleSync();
+    }
+
+    private EnhancedListView.Undoable dismiss(final int position) {
+        final EnhancedListView.Undoable[] undo = new EnhancedListView.Undoable[1];
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                undo[0] = mAdapter.dismiss(position);
+            }
+        });
+        return undo[0];
+    }
+
+    private void undo(final EnhancedListView.Undoable undo) {
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                undo.undo();
+            }
+        });
+    }
+
+    private void discard(final EnhancedListView.Undoable... undos) {
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for(EnhancedListView.Undoable undo : undos) {
+                    undo.discard();
+                }
+            }
+        });
+    }
+
+    private void requery() {
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mAdapter.requery();
+            }
+        });
+    }
+
+    /**
+     * Checks the ids of all rows of the adapter. They are read on the main thread, but checked
+     * on the test thread, so a failure fails the test instead of crashing the process.
+     *
+     * @param expected The expected ids.
+     */
+    private void assertIds(long... expected) {
+        final long[][] ids = new long[1][];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ids[0] = new long[mAdapter.getCount()];
+                for(int i = 0; i < ids[0].length; i++) {
+                    ids[0][i] = mAdapter.getItemId(i);
+                }
+            }
+        });
+        assertEquals(Arrays.toString(expected), Arrays.toString(ids[0]));
+    }
+
+    public void testDismissHidesRowUntilUndo() {
+        EnhancedListView.Undoable undo = dismiss(2);
+        assertIds(1, 2, 4, 5, 6, 7, 8, 9, 10);
+        undo(undo);
+        assertIds(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        assertEquals(0, mAdapter.provider.batches);
+    }
+
+    public void testDiscardedRowsAreDeletedInOneBatch() {
+        EnhancedListView.Undoable first = dismiss(0);
+        EnhancedListView.Undoable second = dismiss(3);
+        EnhancedListView.Undoable third = dismiss(3);
+        discard(first, second, third);
+        assertEquals(1, mAdapter.provider.batches);
+        assertEquals(1, mAdapter.notifications);
+        assertEquals(7, mAdapter.provider.ids.size());
+        assertNull(mAdapter.failure);
+
+        // Still hidden in the cursor, that has been queried before the deletes
+        assertIds(2, 3, 4, 7, 8, 9, 10);
+        requery();
+        assertIds(2, 3, 4, 7, 8, 9, 10);
+    }
+
+    public void testFailedBatchShowsRowsAgain() {
+        mAdapter.provider.failing = true;
+        EnhancedListView.Undoable first = dismiss(1);
+        EnhancedListView.Undoable second = dismiss(1);
+        assertIds(1, 4, 5, 6, 7, 8, 9, 10);
+        discard(first, second);
+        assertEquals(1, mAdapter.provider.batches);
+        assertEquals(0, mAdapter.notifications);
+        assertTrue(mAdapter.failure instanceof OperationApplicationException);
+        assertIds(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    }
+
+    public void testHiddenRowsFollowTheirIdsToANewCursor() {
+        EnhancedListView.Undoable undo = dismiss(4);
+        // Someone else deletes rows before and after the hidden one
+        mAdapter.provider.ids.remove(Long.valueOf(1));
+        mAdapter.provider.ids.remove(Long.valueOf(9));
+        requery();
+        assertIds(2, 3, 4, 6, 7, 8, 10);
+        undo(undo);
+        assertIds(2, 3, 4, 5, 6, 7, 8, 10);
+    }
+
+    public void testHiddenRowsDeletedElsewhereAreForgotten() {
+        EnhancedListView.Undoable undo = dismiss(4);
+        mAdapter.provider.ids.remove(Long.valueOf(5));
+        requery();
+        assertIds(1, 2, 3, 4, 6, 7, 8, 9, 10);
+        // Neither the undo nor the discard of a forgotten row does anything
+        undo(undo);
+        assertIds(1, 2, 3, 4, 6, 7, 8, 9, 10);
+        discard(undo);
+        assertEquals(0, mAdapter.provider.batches);
+    }
+
+}
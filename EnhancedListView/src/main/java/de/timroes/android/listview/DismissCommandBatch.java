@@ -0,0 +1,212 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+/**
+ * Collects the deletes and restores of one run of the commands submitted via
+ * {@link EnhancedListView#submitDelete(long)} and {@link EnhancedListView#submitRestore(long)}.
+ * Only the last command per item counts. The ids are kept sorted in primitive arrays, that are
+ * reused for every run, so no id is boxed. This class doesn't use any Android class, so it can be
+ * tested on a plain JVM.
+ */
+final class DismissCommandBatch {
+
+    /**
+     * The items of the adapter, in which the deleted items are searched.
+     */
+    interface Items {
+
+        /**
+         * Returns the number of items.
+         *
+         * @return The number of items.
+         */
+        int getCount();
+
+        /**
+         * Returns the stable id of an item.
+         *
+         * @param position The position of the item.
+         * @return The id of the item.
+         */
+        long getItemId(int position);
+
+    }
+
+    private long[] mRestoreIds = new long[8];
+    private long[] mDeleteIds = new long[8];
+    private int[] mDeletePositions = new int[8];
+    private int mRestoreCount;
+    private int mDeleteCount;
+
+    /**
+     * Drops all commands.
+     */
+    void clear() {
+        mRestoreCount = 0;
+        mDeleteCount = 0;
+    }
+
+    /**
+     * Adds a command. The commands must be added from the last submitted one backwards, so a
+     * command is ignored, if a command for the same item has been added before.
+     *
+     * @param id The stable id of the item.
+     * @param restore Whether the item should be restored instead of deleted.
+     */
+    void addBackwards(long id, boolean restore) {
+        int restoreIndex = indexOfId(mRestoreIds, mRestoreCount, id);
+        int deleteIndex = indexOfId(mDeleteIds, mDeleteCount, id);
+        if(restoreIndex >= 0 || deleteIndex >= 0) {
+            return;
+        }
+        if(restore) {
+            mRestoreIds = insertId(mRestoreIds, mRestoreCount++, id, -restoreIndex - 1);
+        } else {
+            mDeleteIds = insertId(mDeleteIds, mDeleteCount++, id, -deleteIndex - 1);
+        }
+    }
+
+    /**
+     * Returns the sorted ids of the items to restore. Only the first {@link #getRestoreCount()}
+     * ids are valid.
+     *
+     * @return The ids of the items to restore.
+     */
+    long[] getRestoreIds() {
+        return mRestoreIds;
+    }
+
+    /**
+     * Returns the number of items to restore.
+     *
+     * @return The number of items to restore.
+     */
+    int getRestoreCount() {
+        return mRestoreCount;
+    }
+
+    /**
+     * Returns whether the item with the given id should be restored.
+     *
+     * @param id The stable id of the item.
+     * @return Whether the item should be restored.
+     */
+    boolean isRestored(long id) {
+        return indexOfId(mRestoreIds, mRestoreCount, id) >= 0;
+    }
+
+    /**
+     * Returns the number of items to delete.
+     *
+     * @return The number of items to delete.
+     */
+    int getDeleteCount() {
+        return mDeleteCount;
+    }
+
+    /**
+     * Returns the id of an item to delete.
+     *
+     * @param index The index of the delete, between {@code 0} and {@link #getDeleteCount()}.
+     * @return The stable id of the item.
+     */
+    long getDeleteId(int index) {
+        return mDeleteIds[index];
+    }
+
+    /**
+     * Searches the deleted items in a single pass over the items. The pass stops as soon as all
+     * of them have been found.
+     *
+     * @param items The items to search.
+     * @return The number of found items. Their positions can be read via
+     *         {@link #getDeletePosition(int)} in ascending order.
+     */
+    int findDeletePositions(Items items) {
+        int count = items.getCount();
+        int found = 0;
+        for(int position = 0; position < count && found < mDeleteCount; position++) {
+            if(indexOfId(mDeleteIds, mDeleteCount, items.getItemId(position)) >= 0) {
+                if(found == mDeletePositions.length) {
+                    int[] positions = new int[found * 2];
+                    System.arraycopy(mDeletePositions, 0, positions, 0, found);
+                    mDeletePositions = positions;
+                }
+                mDeletePositions[found++] = position;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns a position found by {@link #findDeletePositions(Items)}.
+     *
+     * @param index The index of the found item.
+     * @return The position of the item.
+     */
+    int getDeletePosition(int index) {
+        return mDeletePositions[index];
+    }
+
+    /**
+     * Inserts an id into a sorted array of ids, that doesn't contain it yet.
+     *
+     * @param ids The sorted ids.
+     * @param count The number of ids in the array.
+     * @param id The id to insert.
+     * @param index The index to insert the id at.
+     * @return The array holding the ids, which is a new one if the old one was full.
+     */
+    private static long[] insertId(long[] ids, int count, long id, int index) {
+        if(count == ids.length) {
+            long[] grown = new long[count * 2];
+            System.arraycopy(ids, 0, grown, 0, count);
+            ids = grown;
+        }
+        System.arraycopy(ids, index, ids, index + 1, count - index);
+        ids[index] = id;
+        return ids;
+    }
+
+    /**
+     * Searches an id in the first ids of a sorted array (same contract as
+     * {@link java.util.Arrays#binarySearch(long[], long)}, which isn't available for ranges on
+     * API level 8).
+     *
+     * @param ids The sorted ids.
+     * @param count The number of ids to search.
+     * @param id The id to search.
+     * @return The index of the id or {@code -(insertion point) - 1} if it isn't contained.
+     */
+    static int indexOfId(long[] ids, int count, long id) {
+        int low = 0;
+        int high = count - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = ids[mid];
+            if(value < id) {
+                low = mid + 1;
+            } else if(value > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+}
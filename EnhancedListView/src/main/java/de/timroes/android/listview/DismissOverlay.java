@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+/**
+ * Hides single positions of an underlying data set, e.g. the rows of a cursor, that have been
+ * dismissed but not yet deleted from the data source. Only the hidden positions are stored (sorted),
+ * so mapping a visible position to the underlying position costs a binary search over the hidden
+ * positions, independent of the size of the data set.
+ */
+final class DismissOverlay {
+
+    private int[] mHidden = new int[8];
+    private int mSize;
+
+    /**
+     * Returns the number of hidden positions.
+     *
+     * @return The number of hidden positions.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Shows all positions again.
+     */
+    void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Returns whether the given underlying position is hidden.
+     *
+     * @param underlyingPosition The position in the underlying data set.
+     * @return Whether the position is hidden.
+     */
+    boolean isHidden(int underlyingPosition) {
+        return indexOf(underlyingPosition) >= 0;
+    }
+
+    /**
+     * Hides an underlying position.
+     *
+     * @param underlyingPosition The position in the underlying data set.
+     * @return {@code false} if the position was already hidden.
+     */
+    boolean hide(int underlyingPosition) {
+        int index = indexOf(underlyingPosition);
+        if(index >= 0) {
+            return false;
+        }
+        index = -index - 1;
+        if(mSize == mHidden.length) {
+            int[] hidden = new int[mSize * 2];
+            System.arraycopy(mHidden, 0, hidden, 0, mSize);
+            mHidden = hidden;
+        }
+        System.arraycopy(mHidden, index, mHidden, index + 1, mSize - index);
+        mHidden[index] = underlyingPosition;
+        mSize++;
+        return true;
+    }
+
+    /**
+     * Shows a hidden underlying position again.
+     *
+     * @param underlyingPosition The position in the underlying data set.
+     * @return {@code false} if the position wasn't hidden.
+     */
+    boolean show(int underlyingPosition) {
+        int index = indexOf(underlyingPosition);
+        if(index < 0) {
+            return false;
+        }
+        System.arraycopy(mHidden, index + 1, mHidden, index, mSize - index - 1);
+        mSize--;
+        return true;
+    }
+
+    /**
+     * Returns the number of visible positions.
+     *
+     * @param underlyingCount The number of positions in the underlying data set.
+     * @return The number of visible positions.
+     */
+    int getVisibleCount(int underlyingCount) {
+        return underlyingCount - mSize;
+    }
+
+    /**
+     * Maps a visible position to its position in the underlying data set.
+     *
+     * @param visiblePosition The visible position.
+     * @return The position in the underlying data set.
+     */
+    int toUnderlying(int visiblePosition) {
+        // mHidden[i] - i is the number of visible positions before the i-th hidden position.
+        // It never decreases, so the number of hidden positions before the visible position can
+        // be found by a binary search.
+        int low = 0;
+        int high = mSize;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(mHidden[mid] - mid <= visiblePosition) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return visiblePosition + low;
+    }
+
+    /**
+     * Maps a position in the underlying data set to its visible position.
+     *
+     * @param underlyingPosition The position in the underlying data set.
+     * @return The visible position or {@code -1} if the position is hidden.
+     */
+    int toVisible(int underlyingPosition) {
+        int index = indexOf(underlyingPosition);
+        if(index >= 0) {
+            return -1;
+        }
+        return underlyingPosition - (-index - 1);
+    }
+
+    /**
+     * Returns the number of hidden positions before an underlying position.
+     *
+     * @param underlyingPosition The position in the underlying data set.
+     * @return The number of hidden positions smaller than the position.
+     */
+    int countHiddenBefore(int underlyingPosition) {
+        int index = indexOf(underlyingPosition);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Searches a hidden position (same contract as {@link java.util.Arrays#binarySearch(int[], int)},
+     * which isn't available for ranges on API level 8).
+     *
+     * @param underlyingPosition The position to search.
+     * @return The index of the position or {@code -(insertion point) - 1} if it isn't hidden.
+     */
+    private int indexOf(int underlyingPosition) {
+        int low = 0;
+        int high = mSize - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = mHidden[mid];
+            if(value < underlyingPosition) {
+                low = mid + 1;
+            } else if(value > underlyingPosition) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+}
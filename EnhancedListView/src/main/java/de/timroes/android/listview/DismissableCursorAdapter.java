@@ -0,0 +1,389 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.support.v4.widget.CursorAdapter;
+import android.view.View;
+import android.view.ViewGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A {@link android.support.v4.widget.CursorAdapter} for data behind a
+ * {@link android.content.ContentProvider}, that handles dismissed rows for you. Return the result
+ * of {@link #dismiss(int)} from your
+ * {@link de.timroes.android.listview.EnhancedListView.OnDismissCallback}:
+ * <pre>
+ * public Undoable onDismiss(EnhancedListView listView, int position) {
+ *     return adapter.dismiss(position);
+ * }
+ * </pre>
+ * Dismissed rows are only hidden in the adapter, as long as they can be undone. As soon as their
+ * undos are discarded, the deletes of all of them are sent to the provider in a single
+ * {@link android.content.ContentResolver#applyBatch(String, java.util.ArrayList)} in the
+ * background, followed by a single {@link android.content.ContentResolver#notifyChange(android.net.Uri, android.database.ContentObserver)}.
+ * The rows stay hidden until a cursor without them is passed to {@link #swapCursor(android.database.Cursor)}.
+ * <p>
+ * Don't pass {@link #FLAG_REGISTER_CONTENT_OBSERVER} when using a loader, otherwise the cursor
+ * would be requeried for every notification of the provider.
+ * <p>
+ * To run against a provider stand-in (e.g. in a test) override {@link #applyBatch(java.util.ArrayList)}
+ * and {@link #notifyChange()}, e.g. to call {@link android.content.ContentProvider#applyBatch(java.util.ArrayList)}
+ * of a local provider instance, and {@link #executeCommit(Runnable)} to run the commit synchronously.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public abstract class DismissableCursorAdapter extends CursorAdapter {
+
+    /**
+     * A row, that has been dismissed, but not yet deleted from the provider.
+     */
+    private class HiddenRow extends EnhancedListView.Undoable {
+
+        final long id;
+        final ContentProviderOperation operation;
+        int cursorPosition;
+        boolean committing;
+        /**
+         * Whether the provider confirmed the delete, so cursors queried from now on won't
+         * contain the row anymore.
+         */
+        boolean deleted;
+
+        HiddenRow(long id, int cursorPosition, ContentProviderOperation operation) {
+            this.id = id;
+            this.cursorPosition = cursorPosition;
+            this.operation = operation;
+        }
+
+        @Override
+        public void undo() {
+            if(committing || !mHiddenRows.remove(this)) {
+                return;
+            }
+            if(cursorPosition >= 0) {
+                mOverlay.show(cursorPosition);
+            }
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public void discard() {
+            if(committing || !mHiddenRows.contains(this)) {
+                return;
+            }
+            committing = true;
+            mQueuedRows.add(this);
+            if(!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.post(mFlushRunnable);
+            }
+        }
+
+    }
+
+    private final Context mContext;
+    private final String mAuthority;
+    private final Uri mContentUri;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private static final Comparator<HiddenRow> ID_ORDER = new Comparator<HiddenRow>() {
+        @Override
+        public int compare(HiddenRow lhs, HiddenRow rhs) {
+            return lhs.id < rhs.id ? -1 : (lhs.id == rhs.id ? 0 : 1);
+        }
+    };
+
+    private final DismissOverlay mOverlay = new DismissOverlay();
+    private final List<HiddenRow> mHiddenRows = new ArrayList<HiddenRow>();
+    private final List<HiddenRow> mQueuedRows = new ArrayList<HiddenRow>();
+    private boolean mFlushScheduled;
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flush();
+        }
+    };
+
+    /**
+     * Creates a new adapter.
+     *
+     * @param context The context.
+     * @param c The cursor to get the data from. It must contain a {@code _id} column.
+     * @param flags Flags of the {@link android.support.v4.widget.CursorAdapter}.
+     * @param authority The authority of the provider, used to apply the batched deletes.
+     * @param contentUri The uri of the data. The ids of dismissed rows will be appended to it
+     *                   to delete them and it will be notified after the deletes.
+     */
+    public DismissableCursorAdapter(Context context, Cursor c, int flags, String authority, Uri contentUri) {
+        super(context, c, flags);
+        mContext = context.getApplicationContext();
+        mAuthority = authority;
+        mContentUri = contentUri;
+    }
+
+    /**
+     * Hides the row at the given position and returns an undo for it. Discarding the undo
+     * deletes the row from the provider, undoing it shows the row again.
+     *
+     * @param position The position of the row in this adapter.
+     * @return The undo for the dismissed row.
+     */
+    public EnhancedListView.Undoable dismiss(int position) {
+        int cursorPosition = mOverlay.toUnderlying(position);
+        Cursor cursor = getCursor();
+        if(cursor == null || !cursor.moveToPosition(cursorPosition)) {
+            throw new IllegalStateException("couldn't move cursor to position " + cursorPosition);
+        }
+        long id = cursor.getLong(cursor.getColumnIndexOrThrow("_id"));
+        HiddenRow row = new HiddenRow(id, cursorPosition, createDeleteOperation(id, cursor));
+        mHiddenRows.add(row);
+        mOverlay.hide(cursorPosition);
+        notifyDataSetChanged();
+        return row;
+    }
+
+    /**
+     * Creates the operation deleting a dismissed row from the provider. The default implementation
+     * deletes the id of the row appended to the content uri.
+     *
+     * @param id The id of the row.
+     * @param cursor The cursor, moved to the row.
+     * @return The operation deleting the row.
+     */
+    protected ContentProviderOperation createDeleteOperation(long id, Cursor cursor) {
+        return ContentProviderOperation.newDelete(ContentUris.withAppendedId(mContentUri, id)).build();
+    }
+
+    /**
+     * Applies the batched deletes. Called on a background thread by default.
+     *
+     * @param operations The deletes of all rows, whose undos have been discarded.
+     * @return The results of the operations.
+     * @throws RemoteException If the provider died.
+     * @throws OperationApplicationException If an operation failed.
+     */
+    protected ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException {
+        return mContext.getContentResolver().applyBatch(mAuthority, operations);
+    }
+
+    /**
+     * Notifies observers of the content uri after the batched deletes have been applied, so the
+     * data gets requeried once. Called on the same thread as {@link #applyBatch(java.util.ArrayList)}.
+     */
+    protected void notifyChange() {
+        mContext.getContentResolver().notifyChange(mContentUri, null);
+    }
+
+    /**
+     * Runs the commit of a batch of deletes. The default implementation runs it in an
+     * {@link android.os.AsyncTask}. Override this to run the commit synchronously, e.g. in a test.
+     *
+     * @param commit The commit to run.
+     */
+    protected void executeCommit(final Runnable commit) {
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                commit.run();
+                return null;
+            }
+        }.execute();
+    }
+
+    /**
+     * Called on the main thread, if applying a batch of deletes failed. The rows of the batch
+     * will be shown again. The default implementation does nothing.
+     *
+     * @param e The exception thrown by {@link #applyBatch(java.util.ArrayList)}.
+     */
+    protected void onCommitFailed(Exception e) { }
+
+    /**
+     * Sends the deletes of all rows, whose undos have been discarded, to the provider.
+     */
+    private void flush() {
+
+        if(mQueuedRows.isEmpty()) {
+            return;
+        }
+
+        final List<HiddenRow> rows = new ArrayList<HiddenRow>(mQueuedRows);
+        mQueuedRows.clear();
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(rows.size());
+        for(HiddenRow row : rows) {
+            operations.add(row.operation);
+        }
+
+        executeCommit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    applyBatch(operations);
+                    // Posted before the notification, so it runs before the requery it causes
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            for(HiddenRow row : rows) {
+                                row.deleted = true;
+                            }
+                        }
+                    });
+                    notifyChange();
+                } catch(final Exception e) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            restoreRows(rows);
+                            onCommitFailed(e);
+                        }
+                    });
+                }
+            }
+        });
+
+    }
+
+    /**
+     * Shows rows, whose deletes failed, again.
+     *
+     * @param rows The rows to show.
+     */
+    private void restoreRows(List<HiddenRow> rows) {
+        for(HiddenRow row : rows) {
+            if(mHiddenRows.remove(row) && row.cursorPosition >= 0) {
+                mOverlay.show(row.cursorPosition);
+            }
+        }
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Finds the positions of all hidden rows in the current cursor. Rows, that are no longer part
+     * of the cursor, have been deleted and are forgotten. Rows, whose deletes the provider
+     * confirmed, are expected to be missing, so the cursor is only searched until all other rows
+     * have been found. Without such rows, the cursor isn't searched at all.
+     */
+    private void remapHiddenRows() {
+
+        mOverlay.clear();
+        if(mHiddenRows.isEmpty()) {
+            return;
+        }
+
+        // Sort the rows by their ids, so every cursor row is looked up with a binary search
+        Collections.sort(mHiddenRows, ID_ORDER);
+        int size = mHiddenRows.size();
+        long[] ids = new long[size];
+        int pending = 0;
+        for(int i = 0; i < size; i++) {
+            HiddenRow row = mHiddenRows.get(i);
+            ids[i] = row.id;
+            row.cursorPosition = -1;
+            if(!row.deleted) {
+                pending++;
+            }
+        }
+
+        Cursor cursor = getCursor();
+        if(pending > 0 && cursor != null && !cursor.isClosed()) {
+            int idColumn = cursor.getColumnIndexOrThrow("_id");
+            int found = 0;
+            cursor.moveToPosition(-1);
+            while(found < pending && cursor.moveToNext()) {
+                int index = Arrays.binarySearch(ids, cursor.getLong(idColumn));
+                if(index < 0) {
+                    continue;
+                }
+                HiddenRow row = mHiddenRows.get(index);
+                if(row.cursorPosition < 0) {
+                    // A deleted row might still be part of a cursor queried before its delete
+                    row.cursorPosition = cursor.getPosition();
+                    mOverlay.hide(row.cursorPosition);
+                    if(!row.deleted) {
+                        found++;
+                    }
+                }
+            }
+        }
+
+        for(int i = size - 1; i >= 0; i--) {
+            if(mHiddenRows.get(i).cursorPosition < 0) {
+                mHiddenRows.remove(i);
+            }
+        }
+
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        Cursor oldCursor = super.swapCursor(newCursor);
+        remapHiddenRows();
+        notifyDataSetChanged();
+        return oldCursor;
+    }
+
+    @Override
+    protected void onContentChanged() {
+        // The requery already notified the list, but with the positions of the old cursor
+        super.onContentChanged();
+        remapHiddenRows();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return getCursor() == null ? 0 : mOverlay.getVisibleCount(super.getCount());
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return super.getItem(mOverlay.toUnderlying(position));
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return super.getItemId(mOverlay.toUnderlying(position));
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        return super.getView(mOverlay.toUnderlying(position), convertView, parent);
+    }
+
+    @Override
+    public View getDropDownView(int position, View convertView, ViewGroup parent) {
+        return super.getDropDownView(mOverlay.toUnderlying(position), convertView, parent);
+    }
+
+}
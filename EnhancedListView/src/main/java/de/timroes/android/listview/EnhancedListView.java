@@ -16,12 +16,17 @@
 package de.timroes.android.listview;
 
 import android.content.Context;
+import android.database.DataSetObserver;
+import android.graphics.Canvas;
 import android.graphics.Rect;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Handler;
-import android.os.Message;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
-import android.view.Gravity;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.VelocityTracker;
@@ -29,24 +34,28 @@ import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
 import android.view.ViewParent;
+import android.view.ViewTreeObserver;
 import android.widget.AbsListView;
-import android.widget.Button;
+import android.widget.HeaderViewListAdapter;
+import android.widget.ListAdapter;
 import android.widget.ListView;
-import android.widget.PopupWindow;
 import android.widget.TextView;
 
 import com.nineoldandroids.animation.Animator;
 import com.nineoldandroids.animation.AnimatorListenerAdapter;
 import com.nineoldandroids.animation.ValueAnimator;
 import com.nineoldandroids.view.ViewHelper;
-import com.nineoldandroids.view.ViewPropertyAnimator;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A {@link android.widget.ListView} offering enhanced features like Swipe To Dismiss and an
@@ -74,8 +83,9 @@ public class EnhancedListView extends ListView {
          * Shows a popup window, that allows the user to undo the last dismiss.
          * If another item is deleted, this will be added to the chain of undos. So pressing
          * undo will undo the last deletion, pressing it again will undo the deletion before that,
-         * and so on. As soon as the popup vanished (e.g. because {@link #setUndoHideDelay(int) autoHideDelay}
-         * is over) all saved undos will be discarded.
+         * and so on. Long clicking the undo button shows all saved undos, so the user can undo any
+         * of them (see {@link Undoable#undoAt(int)}). As soon as the popup vanished (e.g. because
+         * {@link #setUndoHideDelay(int) autoHideDelay} is over) all saved undos will be discarded.
          */
         MULTILEVEL_POPUP,
 
@@ -86,7 +96,17 @@ public class EnhancedListView extends ListView {
          * all stored undos. As soon as the popup vanished (e.g. because {@link #setUndoHideDelay(int) autoHideDelay}
          * is over) all saved undos will be discarded.
          */
-        COLLAPSED_POPUP
+        COLLAPSED_POPUP,
+
+        /**
+         * Doesn't show a popup window, but replaces every dismissed item inside the list by a
+         * row, that undoes this single dismiss when the user taps it. As soon as the
+         * {@link #setUndoHideDelay(int) autoHideDelay} is over, all these rows collapse and the
+         * items are passed to the {@link OnDismissCallback}. Since the items are only removed from
+         * the adapter at that time, an {@link Undoable} returned from the callback will be
+         * discarded immediately.
+         */
+        INLINE
 
     }
 
@@ -145,6 +165,32 @@ public class EnhancedListView extends ListView {
 
     }
 
+    /**
+     * The callback interface used by {@link #setShouldSwipeRangeCallback(EnhancedListView.OnShouldSwipeRangeCallback)}
+     * to check for a whole range of list items, whether they can be swiped. Use this instead of an
+     * {@link de.timroes.android.listview.EnhancedListView.OnShouldSwipeCallback}, if looking up
+     * whether an item can be swiped is expensive. The list queries the callback for the visible
+     * items while scrolling and caches the result until the adapter notifies about changed data,
+     * so touching an item doesn't need to call the callback anymore.
+     */
+    public interface OnShouldSwipeRangeCallback {
+
+        /**
+         * Called when the list needs to know whether a range of items can be swiped.
+         * <p>
+         * Set the bit {@code i} of {@code shouldSwipe} for each item at position
+         * {@code firstPosition + i}, that the user should be able to swipe. All bits are
+         * cleared when this method is called.
+         *
+         * @param listView The {@link EnhancedListView} the items are shown in.
+         * @param firstPosition The position of the first item of the range in your adapter.
+         * @param count The number of items in the range.
+         * @param shouldSwipe The set, that should receive the result.
+         */
+        void onShouldSwipe(EnhancedListView listView, int firstPosition, int count, BitSet shouldSwipe);
+
+    }
+
     /**
      * The callback interface used by {@link #setDismissCallback(EnhancedListView.OnDismissCallback)}
      * to inform its client about a successful dismissal of one or more list item positions.
@@ -178,6 +224,102 @@ public class EnhancedListView extends ListView {
 
     }
 
+    /**
+     * A lightweight alternative to {@link OnDismissCallback} for adapters with stable ids, set via
+     * {@link #setDismissRecordCallback(EnhancedListView.OnDismissRecordCallback)}. The list keeps
+     * the position and the id of every dismissed item itself and reuses its records, so dismissing
+     * many items doesn't require an {@link Undoable} object per item.
+     */
+    public interface OnDismissRecordCallback {
+
+        /**
+         * Called when the user has deleted an item from the list. Delete this item from your
+         * adapter, the same way as in {@link OnDismissCallback#onDismiss(EnhancedListView, int)}.
+         *
+         * @param listView The {@link EnhancedListView} the item has been deleted from.
+         * @param position The position of the item to delete from your adapter.
+         * @param id The id of the item in your adapter.
+         */
+        void onDismiss(EnhancedListView listView, int position, long id);
+
+        /**
+         * Called when the user undid the deletion of an item. Reinsert the item into your adapter.
+         *
+         * @param listView The {@link EnhancedListView} the item has been deleted from.
+         * @param position The position to reinsert the item at. This already takes all other
+         *                 items into account, that have been deleted or restored since.
+         * @param id The id of the item.
+         */
+        void onUndo(EnhancedListView listView, int position, long id);
+
+        /**
+         * Called when the deletion of an item can no longer be undone. Delete the item from your
+         * permanent storage.
+         *
+         * @param listView The {@link EnhancedListView} the item has been deleted from.
+         * @param id The id of the item.
+         */
+        void onDiscard(EnhancedListView listView, long id);
+
+    }
+
+    /**
+     * The callback interface used by
+     * {@link #setDismissPreparationCallback(EnhancedListView.OnDismissPreparationCallback)} to
+     * inform its client as early as possible, that an item is about to be dismissed. The dismiss
+     * callback is only called after the item slided out and collapsed, so use this e.g. to prepare
+     * the delete in your data layer meanwhile.
+     */
+    public interface OnDismissPreparationCallback {
+
+        /**
+         * Called when the user swiped an item beyond the dismiss threshold, lifted the finger to
+         * dismiss it, or the item got deleted via {@link #delete(int)}. This is called at most once
+         * per dismiss. Unless {@link #onCancelDismiss(EnhancedListView, int)} follows, the dismiss
+         * callback will be called for the item later.
+         *
+         * @param listView The {@link EnhancedListView} the item will be deleted from.
+         * @param position The position, that will be passed to the dismiss callback.
+         */
+        void onPrepareDismiss(EnhancedListView listView, int position);
+
+        /**
+         * Called when an item won't be dismissed anymore, after
+         * {@link #onPrepareDismiss(EnhancedListView, int)} has been called for it. This happens if
+         * the user swiped it back below the dismiss threshold, released it there or the swipe got
+         * canceled, if the user tapped its inline undo row, if it has been restored via
+         * {@link #submitRestore(long)} before its commit, or if it has been removed from the
+         * adapter before its commit.
+         *
+         * @param listView The {@link EnhancedListView} the item won't be deleted from.
+         * @param position The position passed to {@link #onPrepareDismiss(EnhancedListView, int)}.
+         *                 If items above it have been committed or the data set changed meanwhile,
+         *                 this is the position the item had afterwards.
+         */
+        void onCancelDismiss(EnhancedListView listView, int position);
+
+    }
+
+    /**
+     * The callback interface used by
+     * {@link #setFindPositionCallback(EnhancedListView.OnFindPositionCallback)} to find items
+     * by their stable ids, when deletes have been submitted via {@link #submitDelete(long)}.
+     * Without it, the list has to ask the adapter for the id of every item to find them.
+     */
+    public interface OnFindPositionCallback {
+
+        /**
+         * Called to find the position of an item with the given stable id.
+         *
+         * @param listView The {@link EnhancedListView} the item should be deleted from.
+         * @param id The stable id of the item.
+         * @return The position of the item in the adapter or a negative value, if the adapter
+         *         doesn't contain it.
+         */
+        int getPositionForId(EnhancedListView listView, long id);
+
+    }
+
     /**
      * Extend this abstract class and return it from
      * {@link EnhancedListView.OnDismissCallback#onDismiss(EnhancedListView, int)}
@@ -199,6 +341,21 @@ public class EnhancedListView extends ListView {
          */
         public abstract void undo();
 
+        /**
+         * Undoes the deletion like {@link #undo()}, but gets passed the position the element must
+         * be reinserted at. This differs from the position passed to
+         * {@link EnhancedListView.OnDismissCallback#onDismiss(EnhancedListView, int)}, if other
+         * items above it have been dismissed or restored since, e.g. when the user picked an older
+         * deletion from the undo history of {@link UndoStyle#MULTILEVEL_POPUP}. Override this
+         * instead of relying on the original position in {@link #undo()}, to support undoing
+         * deletions in any order. The default implementation calls {@link #undo()}.
+         *
+         * @param position The position in the adapter to reinsert the element at.
+         */
+        public void undoAt(int position) {
+            undo();
+        }
+
         /**
          * Returns the individual undo message for this undo. This will be displayed in the undo
          * window, beside the undo button. The default implementation returns {@code null},
@@ -221,9 +378,77 @@ public class EnhancedListView extends ListView {
 
     }
 
-    private class PendingDismissData implements Comparable<PendingDismissData> {
+    /**
+     * Applies the translation of the swiped item once per frame. This is kept in its own class,
+     * since {@link android.view.Choreographer} doesn't exist before API level 16 and this class
+     * must not be loaded on these devices.
+     */
+    private class SwipeFrameCallback implements Choreographer.FrameCallback {
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mSwipeFramePending = false;
+            applySwipeTranslation();
+        }
+
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void remove() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+    }
+
+    /**
+     * Computes the difference between the data of the adapter and a new snapshot in the background.
+     */
+    private class SnapshotTask extends AsyncTask<Void, Void, SnapshotDiff> {
+
+        private final long[] mOldIds;
+        private final long[] mNewIds;
+
+        SnapshotTask(long[] oldIds, long[] newIds) {
+            mOldIds = oldIds;
+            mNewIds = newIds;
+        }
+
+        @Override
+        protected SnapshotDiff doInBackground(Void... params) {
+            return SnapshotDiff.compute(mOldIds, mNewIds);
+        }
+
+        @Override
+        protected void onPostExecute(SnapshotDiff diff) {
+            if(mSnapshotTask != this) {
+                // A newer snapshot has been submitted meanwhile
+                return;
+            }
+            mSnapshotTask = null;
+            mSnapshotDiff = diff;
+            applySnapshotIfIdle();
+        }
+
+    }
+
+    /**
+     * A pending dismiss. It also runs the end of the slide out animation and the collapse
+     * animation of its item, and is reused for other dismisses after its commit, so dismissing
+     * an item doesn't allocate any listeners or animators.
+     */
+    private class PendingDismissData extends SlideAnimations.EndAction implements Comparable<PendingDismissData>,
+            Animator.AnimatorListener, ValueAnimator.AnimatorUpdateListener {
 
         public int position;
+        /**
+         * The position of the list item view inside the list (including headers).
+         */
+        public int listPosition;
+        /**
+         * Whether the item is shown as an inline undo row before being dismissed.
+         */
+        public boolean inline;
         /**
          * The view that should get swiped out.
          */
@@ -232,115 +457,357 @@ public class EnhancedListView extends ListView {
          * The whole list item view.
          */
         public View childView;
+        /**
+         * The layout height of the list item view before it got collapsed.
+         */
+        public int originalLayoutHeight;
+        /**
+         * The height of the list item view, when it started collapsing.
+         */
+        public int collapseHeight;
+        /**
+         * The animator collapsing the list item view. It is kept, when the dismiss is reused.
+         */
+        public ValueAnimator animator;
+        /**
+         * Whether the list item view is currently collapsing.
+         */
+        public boolean collapsing;
 
-        PendingDismissData(int position, View view, View childView) {
+        void reset(int position, View view, View childView) {
             this.position = position;
             this.view = view;
             this.childView = childView;
+            listPosition = 0;
+            inline = false;
+            originalLayoutHeight = 0;
+            collapsing = false;
+        }
+
+        /**
+         * Called when the view has been slided out.
+         */
+        @Override
+        public void run() {
+            mEventLog.log(PipelineEventLog.SLIDE_OUT_END, position);
+            if(inline) {
+                showInlineUndo(this);
+            } else if(mScrollState == OnScrollListener.SCROLL_STATE_FLING) {
+                deferCollapse(this);
+            } else {
+                performDismiss(this);
+            }
+        }
+
+        @Override
+        public void onAnimationUpdate(ValueAnimator valueAnimator) {
+            // Computed from the fraction, since the animated value would be boxed
+            ViewGroup.LayoutParams lp = childView.getLayoutParams();
+            lp.height = (int) (collapseHeight + valueAnimator.getAnimatedFraction() * (1 - collapseHeight));
+            childView.setLayoutParams(lp);
+        }
+
+        @Override
+        public void onAnimationEnd(Animator animation) {
+            if(!collapsing) {
+                // The collapse has been canceled
+                return;
+            }
+            collapsing = false;
+
+            // Make sure no other animation is running. Remove animation from running list, that just finished
+            mAnimatedViews.remove(view);
+            mEventLog.log(PipelineEventLog.COLLAPSE_END, position);
+
+            if(mAnimatedViews.isEmpty()) {
+                // No active animations, process all pending dismisses.
+                requestCommit(true);
+            }
         }
 
+        @Override
+        public void onAnimationStart(Animator animation) { }
+
+        @Override
+        public void onAnimationCancel(Animator animation) { }
+
+        @Override
+        public void onAnimationRepeat(Animator animation) { }
+
         @Override
         public int compareTo(PendingDismissData other) {
             // Sort by descending position
-            return other.position - position;
+            return position > other.position ? -1 : (position == other.position ? 0 : 1);
         }
 
     }
 
-    private class UndoClickListener implements OnClickListener {
+    /**
+     * The undo of a dismiss reported to an {@link OnDismissRecordCallback}. It is reused for
+     * other dismisses, after it has been undone or discarded.
+     */
+    private class DismissRecord extends Undoable {
+
+        private OnDismissRecordCallback mCallback;
+        private int mPosition;
+        private long mId;
 
-        /**
-         * Called when a view has been clicked.
-         *
-         * @param v The view that was clicked.
-         */
         @Override
-        public void onClick(View v) {
-            if(!mUndoActions.isEmpty()) {
-                switch(mUndoStyle) {
-                    case SINGLE_POPUP:
-                        mUndoActions.get(0).undo();
-                        mUndoActions.clear();
-                        break;
-                    case COLLAPSED_POPUP:
-                        Collections.reverse(mUndoActions);
-                        for(Undoable undo : mUndoActions) {
-                            undo.undo();
-                        }
-                        mUndoActions.clear();
-                        break;
-                    case MULTILEVEL_POPUP:
-                        mUndoActions.get(mUndoActions.size() - 1).undo();
-                        mUndoActions.remove(mUndoActions.size() - 1);
-                        break;
-                }
-            }
+        public void undo() {
+            undoAt(mPosition);
+        }
 
-            // Dismiss dialog or change text
-            if(mUndoActions.isEmpty()) {
-                if(mUndoPopup.isShowing()) {
-                    mUndoPopup.dismiss();
-                }
-            } else {
-                changePopupText();
-                changeButtonLabel();
-            }
+        @Override
+        public void undoAt(int position) {
+            OnDismissRecordCallback callback = mCallback;
+            long id = mId;
+            recycleRecord(this);
+            callback.onUndo(EnhancedListView.this, position, id);
+        }
 
-            mValidDelayedMsgId++;
+        @Override
+        public void discard() {
+            OnDismissRecordCallback callback = mCallback;
+            long id = mId;
+            recycleRecord(this);
+            callback.onDiscard(EnhancedListView.this, id);
         }
+
     }
 
-    private class HideUndoPopupHandler extends Handler {
+    /**
+     * A delete or restore submitted from any thread via {@link #submitDelete(long)} or
+     * {@link #submitRestore(long)}.
+     */
+    private static class DismissCommand {
 
-        /**
-         * Subclasses must implement this to receive messages.
-         */
-        @Override
-        public void handleMessage(Message msg) {
-            if(msg.what == mValidDelayedMsgId) {
-            	discardUndo();
-            }
+        final long id;
+        final boolean restore;
+
+        DismissCommand(long id, boolean restore) {
+            this.id = id;
+            this.restore = restore;
         }
+
+    }
+
+    /**
+     * A restored list item view, that expands from zero to the height its item had when it has
+     * been dismissed.
+     */
+    private static class ExpandingRow {
+
+        View view;
+        int originalLayoutHeight;
+        int startHeight;
+        int targetHeight;
+
     }
 
     // Cached ViewConfiguration and system-wide constant values
-    private float mSlop;
-    private int mMinFlingVelocity;
-    private int mMaxFlingVelocity;
     private long mAnimationTime;
 
-    private final Object[] mAnimationLock = new Object[0];
-
     // Swipe-To-Dismiss
     private boolean mSwipeEnabled;
     private OnDismissCallback mDismissCallback;
+    private OnDismissRecordCallback mDismissRecordCallback;
+    private OnDismissPreparationCallback mDismissPreparationCallback;
+    private OnFindPositionCallback mFindPositionCallback;
+    /**
+     * The position of the swiped item, if it has been prepared to be dismissed.
+     */
+    private int mPreparedPosition = AbsListView.INVALID_POSITION;
     private OnShouldSwipeCallback mShouldSwipeCallback;
+    private OnShouldSwipeRangeCallback mShouldSwipeRangeCallback;
     private UndoStyle mUndoStyle = UndoStyle.SINGLE_POPUP;
     private boolean mTouchBeforeAutoHide = true;
     private SwipeDirection mSwipeDirection = SwipeDirection.BOTH;
     private int mUndoHideDelay = 5000;
     private int mSwipingLayout;
 
-    private List<Undoable> mUndoActions = new ArrayList<Undoable>();
-    private SortedSet<PendingDismissData> mPendingDismisses = new TreeSet<PendingDismissData>();
-    private List<View> mAnimatedViews = new LinkedList<View>();
-    private int mDismissAnimationRefCount;
+    // All dismiss bookkeeping is only touched on the UI thread, so it doesn't need any locking
+    private List<PendingDismissData> mPendingDismisses = new ArrayList<PendingDismissData>();
+    /**
+     * The dismisses, that are currently sliding out or collapsing, by the view they animate.
+     */
+    private Map<View, PendingDismissData> mAnimatedViews = new IdentityHashMap<View, PendingDismissData>();
+    private List<PendingDismissData> mDismissPool = new ArrayList<PendingDismissData>();
+    private List<DismissRecord> mRecordPool = new ArrayList<DismissRecord>();
+    /**
+     * The list positions of all items dismissed since the last commit.
+     */
+    private BitSet mDismissedPositions = new BitSet();
+    /**
+     * The inline undo rows, that are collapsing or waiting for their commit, by their list item view.
+     */
+    private Map<View, PendingDismissData> mCollapsingInlineRows = new IdentityHashMap<View, PendingDismissData>();
+    private final UndoIndex mUndoIndex = new UndoIndex(this);
+    private List<UndoIndex.Entry> mCommitUndos = new ArrayList<UndoIndex.Entry>();
+    private boolean mOffscreenCommitScheduled;
+    /**
+     * The dismisses of the running commit. Their callbacks are called in the order of this list.
+     */
+    private List<PendingDismissData> mCommitBatch = new ArrayList<PendingDismissData>();
+    private int mCommitIndex;
+    private boolean mCommitting;
+    private boolean mCommitShowUndoPopup;
+    private boolean mCommitUndoAdded;
+    private int mCommitFrameBudget = 8;
+    private final Runnable mContinueCommitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if(mCommitting) {
+                continueCommit(mCommitFrameBudget * 1000000L);
+            }
+        }
+    };
+    private final Runnable mOffscreenCommitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mOffscreenCommitScheduled = false;
+            if(mAnimatedViews.isEmpty() && !mPendingDismisses.isEmpty()) {
+                requestCommit(true);
+            }
+        }
+    };
+    /**
+     * Items, that have been slided out while the list was flinging, waiting to collapse.
+     */
+    private List<PendingDismissData> mDeferredCollapses = new ArrayList<PendingDismissData>();
+    private boolean mCommitDeferred;
+    private boolean mDeferredShowUndoPopup;
+    private int mScrollState = OnScrollListener.SCROLL_STATE_IDLE;
+    private OnScrollListener mOnScrollListener;
+    private List<OnScrollListener> mScrollListeners = new ArrayList<OnScrollListener>();
+    private List<PendingDismissData> mInlineUndos = new ArrayList<PendingDismissData>();
+    private PendingDismissData mInlineUndoTouched;
+    private View mInlineUndoView;
+    private boolean mInlineCommitScheduled;
+    private final Runnable mCommitInlineUndosRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mInlineCommitScheduled = false;
+            commitInlineUndos(true);
+        }
+    };
 
     private boolean mSwipePaused;
-    private boolean mSwiping;
     private int mViewWidth = 1; // 1 and not 0 to prevent dividing by zero
     private View mSwipeDownView;
     private View mSwipeDownChild;
-    private TextView mUndoPopupTextView;
     private VelocityTracker mVelocityTracker;
-    private float mDownX;
     private int mDownPosition;
-    private float mScreenDensity;
+    private final Rect mHitRect = new Rect();
+    private final int[] mLocationOnScreen = new int[2];
+    private final SwipeDismissLogic mSwipeLogic = new SwipeDismissLogic();
+    private Object mSwipeFrameCallback;
+    private boolean mSwipeFramePending;
+    private GestureTraceRecorder mGestureTraceRecorder;
+    private final PipelineEventLog mEventLog = new PipelineEventLog();
+
+    private UndoManager mUndoManager;
+
+    private ListAdapter mObservedAdapter;
+    private PrefetchingAdapter mPrefetchingAdapter;
+    private final ArrayList<FixedViewInfo> mHeaderViewInfos = new ArrayList<FixedViewInfo>();
+    private final ArrayList<FixedViewInfo> mFooterViewInfos = new ArrayList<FixedViewInfo>();
+    private HeaderViewListAdapter mUnwrappedHeaderAdapter;
+    private int mPrefetchBudget = 4;
+    private int mCollapsingHeight;
+    private int mPrefetchNext;
+    private int mPrefetchEnd;
+    private boolean mPrefetchScheduled;
+    private final MessageQueue.IdleHandler mPrefetchIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            mPrefetchScheduled = prefetchRevealedRows(mPrefetchBudget * 1000000L);
+            return mPrefetchScheduled;
+        }
+    };
+    private BitSet mShouldSwipe = new BitSet();
+    private BitSet mShouldSwipeKnown = new BitSet();
+    private BitSet mShouldSwipeRange = new BitSet();
+    private final DataSetObserver mShouldSwipeObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            mDataGeneration++;
+            invalidateShouldSwipe();
+        }
+
+        @Override
+        public void onInvalidated() {
+            mDataGeneration++;
+            invalidateShouldSwipe();
+        }
+    };
+    private int mDataGeneration;
+    private long[] mSnapshotIds;
+    private Runnable mSnapshotApply;
+    private SnapshotDiff mSnapshotDiff;
+    private int mSnapshotGeneration;
+    private SnapshotTask mSnapshotTask;
+    /**
+     * The heights of dismissed rows by the stable ids of their items.
+     */
+    private final RowHeights mRowHeights = new RowHeights();
+    /**
+     * The adapter positions of the items restored since the last layout.
+     */
+    private int[] mRestoredPositions = new int[4];
+    private int mRestoredCount;
+    private boolean mRestoreScheduled;
+    private final ViewTreeObserver.OnPreDrawListener mExpandRestoredRowsListener = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            getViewTreeObserver().removeOnPreDrawListener(this);
+            mRestoreScheduled = false;
+            // Skip this frame, if rows start expanding, so they don't flash up at their full height
+            return !expandRestoredRows();
+        }
+    };
+    private Map<View, ExpandingRow> mExpandingRows = new IdentityHashMap<View, ExpandingRow>();
+    private List<ExpandingRow> mExpandingRowPool = new ArrayList<ExpandingRow>();
+    private ValueAnimator mExpandAnimator;
+    private boolean mExpandRestarting;
+    /**
+     * Deletes and restores submitted from any thread. This and the scheduled flag are the only
+     * dismiss state, that may be touched from other threads than the UI thread.
+     */
+    private final ConcurrentLinkedQueue<DismissCommand> mDismissCommands = new ConcurrentLinkedQueue<DismissCommand>();
+    private final AtomicBoolean mDismissCommandsScheduled = new AtomicBoolean();
+    /**
+     * Whether the adapter has stable ids, so submitted commands can be checked on their thread.
+     */
+    private volatile boolean mAdapterHasStableIds;
+    /**
+     * The commands of the current run and their ids, kept for the next runs.
+     */
+    private final List<DismissCommand> mCommandBatch = new ArrayList<DismissCommand>();
+    private final DismissCommandBatch mCommandIds = new DismissCommandBatch();
+    private final DismissCommandBatch.Items mAdapterItems = new DismissCommandBatch.Items() {
+        @Override
+        public int getCount() {
+            return mObservedAdapter.getCount();
+        }
 
-    private PopupWindow mUndoPopup;
-    private int mValidDelayedMsgId;
-    private Handler mHideUndoHandler = new HideUndoPopupHandler();
-    private Button mUndoButton;
+        @Override
+        public long getItemId(int position) {
+            return mObservedAdapter.getItemId(position);
+        }
+    };
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mScheduleDismissCommandsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            ViewCompat.postOnAnimation(EnhancedListView.this, mRunDismissCommandsRunnable);
+        }
+    };
+    private final Runnable mRunDismissCommandsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            runDismissCommands();
+        }
+    };
     // END Swipe-To-Dismiss
 
     /**
@@ -369,40 +836,103 @@ public class EnhancedListView extends ListView {
 
     private void init(Context ctx) {
 
+        // Observe and wrap the adapter set by the constructor of ListView, if any
+        ListAdapter entries = super.getAdapter();
+        if(entries != null && mObservedAdapter == null) {
+            setAdapter(entries);
+        }
+
         if(isInEditMode()) {
             // Skip initializing when in edit mode (IDE preview).
             return;
         }
         ViewConfiguration vc =ViewConfiguration.get(ctx);
-        mSlop = getResources().getDimension(R.dimen.elv_touch_slop);
-		mMinFlingVelocity = vc.getScaledMinimumFlingVelocity();
-        mMaxFlingVelocity = vc.getScaledMaximumFlingVelocity();
+        mSwipeLogic.setConstants(getResources().getDimension(R.dimen.elv_touch_slop),
+                vc.getScaledMinimumFlingVelocity(), vc.getScaledMaximumFlingVelocity());
         mAnimationTime = ctx.getResources().getInteger(
                 android.R.integer.config_shortAnimTime);
 
-        // Initialize undo popup
-        LayoutInflater inflater = (LayoutInflater)getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        View undoView = inflater.inflate(R.layout.elv_undo_popup, null);
-        mUndoButton = (Button)undoView.findViewById(R.id.undo);
-        mUndoButton.setOnClickListener(new UndoClickListener());
-        mUndoButton.setOnTouchListener(new OnTouchListener() {
-            @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                // If the user touches the screen invalidate the current running delay by incrementing
-                // the valid message id. So this delay won't hide the undo popup anymore
-                mValidDelayedMsgId++;
-                return false;
+        mUndoManager = new UndoManager(ctx);
+
+        super.setOnScrollListener(makeScrollListener());
+
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if(!isInEditMode()) {
+            mUndoManager.attach(this);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        if(!isInEditMode()) {
+            commitInlineUndos(false);
+            finishRunningDismisses();
+            flushSnapshot();
+            mUndoManager.detach(this);
+        }
+        cancelPrefetch();
+        cancelRowExpansion();
+        if(mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+        cancelSwipeFrame();
+        cancelPreparedDismiss();
+        mSwipeDownView = mSwipeDownChild = null;
+        mSwipeLogic.reset();
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Cancels all running slide out and collapse animations and immediately dismisses all items,
+     * that the user already swiped out. Afterwards no animation or listener holds any reference
+     * to a list item anymore.
+     */
+    private void finishRunningDismisses() {
+
+        if(mCommitting) {
+            finishCommit();
+        }
+
+        if(mOffscreenCommitScheduled) {
+            removeCallbacks(mOffscreenCommitRunnable);
+            mOffscreenCommitScheduled = false;
+        }
+
+        if(mAnimatedViews.isEmpty()) {
+            if(!mPendingDismisses.isEmpty()) {
+                processPendingDismisses(false);
             }
-        });
-        mUndoPopupTextView = (TextView)undoView.findViewById(R.id.text);
+            return;
+        }
 
-        mUndoPopup = new PopupWindow(undoView, ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT, false);
-        mUndoPopup.setAnimationStyle(R.style.elv_fade_animation);
+        for(PendingDismissData dismiss : mDeferredCollapses) {
+            ViewCompat.setHasTransientState(dismiss.childView, false);
+        }
+        mDeferredCollapses.clear();
+
+        for(PendingDismissData dismiss : mAnimatedViews.values()) {
+            // Remove listeners before canceling, since canceling an animation also ends it
+            SlideAnimations.cancel(dismiss.view);
+            if(dismiss.collapsing) {
+                // The collapse won't end the dismiss, since it's no longer collapsing
+                dismiss.collapsing = false;
+                dismiss.animator.cancel();
+            } else {
+                dismiss.originalLayoutHeight = dismiss.childView.getLayoutParams().height;
+                mPendingDismisses.add(dismiss);
+            }
+        }
 
-        mScreenDensity = getResources().getDisplayMetrics().density;
-        // END initialize undo popup
+        mAnimatedViews.clear();
+        mCollapsingInlineRows.clear();
+        mInlineUndoTouched = null;
 
-        setOnScrollListener(makeScrollListener());
+        processPendingDismisses(false);
 
     }
 
@@ -423,7 +953,7 @@ public class EnhancedListView extends ListView {
      */
     public EnhancedListView enableSwipeToDismiss() {
 
-        if(mDismissCallback == null) {
+        if(mDismissCallback == null && mDismissRecordCallback == null) {
             throw new IllegalStateException("You must pass an OnDismissCallback to the list before enabling Swipe to Dismiss.");
         }
 
@@ -457,45 +987,356 @@ public class EnhancedListView extends ListView {
     }
 
     /**
-     * Sets the callback to be called when the user is swiping an item from the list.
+     * Sets the callback to be called instead of the {@link OnDismissCallback}, when the user
+     * dismissed, restored or finally deleted an item. Use this instead of
+     * {@link #setDismissCallback(de.timroes.android.listview.EnhancedListView.OnDismissCallback)},
+     * if your items can be identified by the ids of your adapter, to dismiss many items without
+     * creating an {@link Undoable} for each of them.
      *
-     * @param shouldSwipeCallback The callback used to handle swipes of list items.
+     * @param dismissRecordCallback The callback used to handle dismisses of list items or
+     *                              {@code null} to use the {@link OnDismissCallback} again.
      * @return This {@link de.timroes.android.listview.EnhancedListView}
      */
-    public EnhancedListView setShouldSwipeCallback(OnShouldSwipeCallback shouldSwipeCallback) {
-        mShouldSwipeCallback = shouldSwipeCallback;
+    public EnhancedListView setDismissRecordCallback(OnDismissRecordCallback dismissRecordCallback) {
+        mDismissRecordCallback = dismissRecordCallback;
         return this;
     }
 
     /**
-     * Sets the undo style of this list. See the javadoc of {@link de.timroes.android.listview.EnhancedListView.UndoStyle}
-     * for a detailed explanation of the different styles. The default style (if you never call this
-     * method) is {@link de.timroes.android.listview.EnhancedListView.UndoStyle#SINGLE_POPUP}.
+     * Sets the callback to be called as soon as the list knows, that an item will be dismissed,
+     * and if a swipe, that went beyond the dismiss threshold, has been withdrawn.
      *
-     * @param undoStyle The style of this listview.
+     * @param dismissPreparationCallback The callback or {@code null} to remove it.
      * @return This {@link de.timroes.android.listview.EnhancedListView}
      */
-    public EnhancedListView setUndoStyle(UndoStyle undoStyle) {
-        mUndoStyle = undoStyle;
+    public EnhancedListView setDismissPreparationCallback(OnDismissPreparationCallback dismissPreparationCallback) {
+        mDismissPreparationCallback = dismissPreparationCallback;
         return this;
     }
 
     /**
-     * Sets the time in milliseconds after which the undo popup automatically disappears.
-     * The countdown will start when the user touches the screen. If you want to start the countdown
-     * immediately when the popups appears, call {@link #setRequireTouchBeforeDismiss(boolean)} with
-     * {@code false}.
+     * Sets the callback used to find the items of deletes submitted via {@link #submitDelete(long)}.
+     * Set this if your data layer can find an item by its id faster than by asking the adapter
+     * for the id of every item, e.g. if it keeps an index of its ids.
      *
-     * @param hideDelay The delay in milliseconds.
+     * @param findPositionCallback The callback or {@code null} to remove it.
      * @return This {@link de.timroes.android.listview.EnhancedListView}
      */
-    public EnhancedListView setUndoHideDelay(int hideDelay) {
-        mUndoHideDelay = hideDelay;
+    public EnhancedListView setFindPositionCallback(OnFindPositionCallback findPositionCallback) {
+        mFindPositionCallback = findPositionCallback;
         return this;
     }
 
     /**
-     * Sets whether another touch on the view is required before the popup counts down to dismiss
+     * Sets the callback to be called when the user is swiping an item from the list.
+     *
+     * @param shouldSwipeCallback The callback used to handle swipes of list items.
+     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     */
+    public EnhancedListView setShouldSwipeCallback(OnShouldSwipeCallback shouldSwipeCallback) {
+        mShouldSwipeCallback = shouldSwipeCallback;
+        return this;
+    }
+
+    /**
+     * Sets the callback to check for a whole range of list items, whether they can be swiped.
+     * If this is set, it will be used instead of the callback set via
+     * {@link #setShouldSwipeCallback(de.timroes.android.listview.EnhancedListView.OnShouldSwipeCallback)}.
+     * Results will be cached until the adapter notifies about changed data.
+     *
+     * @param shouldSwipeRangeCallback The callback used to check which list items can be swiped.
+     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     */
+    public EnhancedListView setShouldSwipeRangeCallback(OnShouldSwipeRangeCallback shouldSwipeRangeCallback) {
+        mShouldSwipeRangeCallback = shouldSwipeRangeCallback;
+        invalidateShouldSwipe();
+        return this;
+    }
+
+    @Override
+    public void setAdapter(ListAdapter adapter) {
+        if(mShouldSwipeObserver == null) {
+            // Called by the constructor of ListView for android:entries, before any field of this
+            // list has been initialized. The adapter is wrapped by init() afterwards.
+            super.setAdapter(adapter);
+            return;
+        }
+        if(mObservedAdapter != null) {
+            mObservedAdapter.unregisterDataSetObserver(mShouldSwipeObserver);
+        }
+        dropSnapshot();
+        cancelRowExpansion();
+        mRowHeights.clear();
+        if(mPrefetchingAdapter != null) {
+            cancelPrefetch();
+            mPrefetchingAdapter.release();
+            mPrefetchingAdapter = null;
+        }
+        mObservedAdapter = adapter;
+        mUnwrappedHeaderAdapter = null;
+        mAdapterHasStableIds = adapter != null && adapter.hasStableIds();
+        if(adapter != null) {
+            adapter.registerDataSetObserver(mShouldSwipeObserver);
+            mPrefetchingAdapter = PrefetchingAdapter.wrap(adapter);
+        }
+        invalidateShouldSwipe();
+        super.setAdapter(mPrefetchingAdapter);
+    }
+
+    /**
+     * Returns the adapter set via {@link #setAdapter(android.widget.ListAdapter)}. If the list has
+     * header or footer views, this is a {@link android.widget.HeaderViewListAdapter} like for every
+     * {@link android.widget.ListView}, which wraps your adapter.
+     *
+     * @return The adapter of the list.
+     */
+    @Override
+    public ListAdapter getAdapter() {
+        ListAdapter adapter = super.getAdapter();
+        if(adapter == null || mPrefetchingAdapter == null) {
+            return adapter;
+        }
+        if(adapter == mPrefetchingAdapter) {
+            return mObservedAdapter;
+        }
+        // The list wrapped the adapter handing out the prefetched rows together with the headers
+        // and footers, so your adapter is wrapped the same way
+        if(mUnwrappedHeaderAdapter == null) {
+            mUnwrappedHeaderAdapter = new HeaderViewListAdapter(mHeaderViewInfos, mFooterViewInfos, mObservedAdapter);
+        }
+        return mUnwrappedHeaderAdapter;
+    }
+
+    @Override
+    public void addHeaderView(View v, Object data, boolean isSelectable) {
+        super.addHeaderView(v, data, isSelectable);
+        mHeaderViewInfos.add(createFixedViewInfo(v, data, isSelectable));
+        mUnwrappedHeaderAdapter = null;
+    }
+
+    @Override
+    public boolean removeHeaderView(View v) {
+        boolean removed = super.removeHeaderView(v);
+        removeFixedViewInfo(v, mHeaderViewInfos);
+        return removed;
+    }
+
+    @Override
+    public void addFooterView(View v, Object data, boolean isSelectable) {
+        super.addFooterView(v, data, isSelectable);
+        mFooterViewInfos.add(createFixedViewInfo(v, data, isSelectable));
+        mUnwrappedHeaderAdapter = null;
+    }
+
+    @Override
+    public boolean removeFooterView(View v) {
+        boolean removed = super.removeFooterView(v);
+        removeFixedViewInfo(v, mFooterViewInfos);
+        return removed;
+    }
+
+    private FixedViewInfo createFixedViewInfo(View v, Object data, boolean isSelectable) {
+        FixedViewInfo info = new FixedViewInfo();
+        info.view = v;
+        info.data = data;
+        info.isSelectable = isSelectable;
+        return info;
+    }
+
+    private void removeFixedViewInfo(View v, List<FixedViewInfo> infos) {
+        for(int i = 0; i < infos.size(); i++) {
+            if(infos.get(i).view == v) {
+                infos.remove(i);
+                mUnwrappedHeaderAdapter = null;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the item at the given position can be swiped. This only looks up the cache,
+     * if the item has already been checked via the
+     * {@link de.timroes.android.listview.EnhancedListView.OnShouldSwipeRangeCallback}.
+     *
+     * @param position The position of the item in the adapter.
+     * @return Whether the item should be swiped.
+     */
+    private boolean shouldSwipe(int position) {
+        if(mShouldSwipeRangeCallback != null && position >= 0) {
+            if(!mShouldSwipeKnown.get(position)) {
+                queryShouldSwipe(position, 1);
+            }
+            return mShouldSwipe.get(position);
+        }
+        return mShouldSwipeCallback == null || mShouldSwipeCallback.onShouldSwipe(this, position);
+    }
+
+    /**
+     * Queries the {@link de.timroes.android.listview.EnhancedListView.OnShouldSwipeRangeCallback}
+     * for all items in the given range, that aren't cached yet.
+     *
+     * @param firstPosition The adapter position of the first item.
+     * @param count The number of items.
+     */
+    private void updateShouldSwipe(int firstPosition, int count) {
+        if(mShouldSwipeRangeCallback == null) {
+            return;
+        }
+        firstPosition = Math.max(firstPosition, 0);
+        int end = Math.min(firstPosition + count, mObservedAdapter != null ? mObservedAdapter.getCount() : 0);
+        int start = mShouldSwipeKnown.nextClearBit(firstPosition);
+        while(start < end) {
+            int runEnd = Math.min(mShouldSwipeKnown.nextSetBit(start), end);
+            if(runEnd < 0) {
+                runEnd = end;
+            }
+            queryShouldSwipe(start, runEnd - start);
+            start = mShouldSwipeKnown.nextClearBit(runEnd);
+        }
+    }
+
+    /**
+     * Queries the {@link de.timroes.android.listview.EnhancedListView.OnShouldSwipeRangeCallback}
+     * for a range of items and stores the result in the cache.
+     *
+     * @param firstPosition The adapter position of the first item.
+     * @param count The number of items.
+     */
+    private void queryShouldSwipe(int firstPosition, int count) {
+        mShouldSwipeRange.clear();
+        mShouldSwipeRangeCallback.onShouldSwipe(this, firstPosition, count, mShouldSwipeRange);
+        for(int i = 0; i < count; i++) {
+            mShouldSwipe.set(firstPosition + i, mShouldSwipeRange.get(i));
+        }
+        mShouldSwipeKnown.set(firstPosition, firstPosition + count);
+    }
+
+    /**
+     * Drops all cached results of the
+     * {@link de.timroes.android.listview.EnhancedListView.OnShouldSwipeRangeCallback}.
+     */
+    private void invalidateShouldSwipe() {
+        mShouldSwipe.clear();
+        mShouldSwipeKnown.clear();
+    }
+
+    /**
+     * Sets the undo style of this list. See the javadoc of {@link de.timroes.android.listview.EnhancedListView.UndoStyle}
+     * for a detailed explanation of the different styles. The default style (if you never call this
+     * method) is {@link de.timroes.android.listview.EnhancedListView.UndoStyle#SINGLE_POPUP}.
+     *
+     * @param undoStyle The style of this listview.
+     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     */
+    public EnhancedListView setUndoStyle(UndoStyle undoStyle) {
+        mUndoStyle = undoStyle;
+        return this;
+    }
+
+    /**
+     * Returns the undo style of this list.
+     *
+     * @return The undo style of this list.
+     */
+    UndoStyle getUndoStyle() {
+        return mUndoStyle;
+    }
+
+    /**
+     * Sets the {@link de.timroes.android.listview.UndoManager} holding the undo popup and the
+     * pending undos of this list. By default every list has its own manager. Pass the same manager
+     * to several lists, to let them share one undo popup and discard their undos together.
+     * All undos pending in the previous manager of this list will be discarded.
+     *
+     * @param undoManager The undo manager to use.
+     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     */
+    public EnhancedListView setUndoManager(UndoManager undoManager) {
+        if(undoManager == null) {
+            throw new IllegalArgumentException("The undo manager must not be null.");
+        }
+        if(undoManager == mUndoManager) {
+            return this;
+        }
+        mUndoManager.discardUndo();
+        if(getWindowToken() != null) {
+            mUndoManager.detach(this);
+            undoManager.attach(this);
+        }
+        mUndoManager = undoManager;
+        return this;
+    }
+
+    /**
+     * Returns the {@link de.timroes.android.listview.UndoManager} of this list.
+     *
+     * @return The undo manager of this list.
+     */
+    public UndoManager getUndoManager() {
+        return mUndoManager;
+    }
+
+    /**
+     * Sets the time in milliseconds after which the undo popup automatically disappears.
+     * The countdown will start when the user touches the screen. If you want to start the countdown
+     * immediately when the popups appears, call {@link #setRequireTouchBeforeDismiss(boolean)} with
+     * {@code false}.
+     *
+     * @param hideDelay The delay in milliseconds.
+     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     */
+    public EnhancedListView setUndoHideDelay(int hideDelay) {
+        mUndoHideDelay = hideDelay;
+        return this;
+    }
+
+    /**
+     * Returns the time in milliseconds after which the undo popup automatically disappears.
+     *
+     * @return The delay in milliseconds.
+     */
+    int getUndoHideDelay() {
+        return mUndoHideDelay;
+    }
+
+    /**
+     * Sets the time in milliseconds, that the dismiss callbacks of a batch of dismissed items
+     * may take per frame. When the last dismiss animation ends, the
+     * {@link de.timroes.android.listview.EnhancedListView.OnDismissCallback} is called for every
+     * dismissed item. If this takes longer than the budget, the remaining callbacks are called in
+     * the next frames. Until all callbacks have been called, the list neither lays out its items
+     * nor reacts to touches, so it shows a consistent state. By default the budget is 8 milliseconds.
+     * Pass {@code 0} to call all callbacks in one frame.
+     *
+     * @param budget The time budget per frame in milliseconds.
+     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     */
+    public EnhancedListView setCommitFrameBudget(int budget) {
+        mCommitFrameBudget = budget;
+        return this;
+    }
+
+    /**
+     * Sets the time in milliseconds, that the list may spend per idle phase of the main thread,
+     * to create the rows, that will be revealed below the list, when the running dismiss animations
+     * collapse their items. Otherwise these rows would be inflated and bound in the middle of the
+     * animation. The rows are created between the frames of the animation and handed out as soon as
+     * the list asks for them. At most one row per view type is created in advance. By default the
+     * budget is 4 milliseconds. Pass {@code 0} to disable prefetching.
+     *
+     * @param budget The time budget per idle phase in milliseconds.
+     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     */
+    public EnhancedListView setPrefetchBudget(int budget) {
+        mPrefetchBudget = budget;
+        if(budget <= 0) {
+            cancelPrefetch();
+        }
+        return this;
+    }
+
+    /**
+     * Sets whether another touch on the view is required before the popup counts down to dismiss
      * the undo popup. By default this is set to {@code true}.
      *
      * @param touchBeforeDismiss Whether the screen needs to be touched before the countdown starts.
@@ -508,6 +1349,15 @@ public class EnhancedListView extends ListView {
         return this;
     }
 
+    /**
+     * Returns whether another touch on the view is required before the popup counts down.
+     *
+     * @return Whether the screen needs to be touched before the countdown starts.
+     */
+    boolean isTouchBeforeAutoHide() {
+        return mTouchBeforeAutoHide;
+    }
+
     /**
      * Sets the directions in which a list item can be swiped to delete.
      * By default this is set to {@link SwipeDirection#BOTH} so that an item
@@ -516,397 +1366,1692 @@ public class EnhancedListView extends ListView {
      * <b>Note:</b> This method requires the <i>Swipe to Dismiss</i> feature enabled. Use
      * {@link #enableSwipeToDismiss()} to enable the feature.
      *
-     * @param direction The direction to which the swipe should be limited.
-     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     * @param direction The direction to which the swipe should be limited.
+     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     */
+    public EnhancedListView setSwipeDirection(SwipeDirection direction) {
+        mSwipeDirection = direction;
+        return this;
+    }
+
+    /**
+     * Sets the id of the view, that should be moved, when the user swipes an item.
+     * Only the view with the specified id will move, while all other views in the list item, will
+     * stay where they are. This might be usefull to have a background behind the view that is swiped
+     * out, to stay where it is (and maybe explain that the item is going to be deleted).
+     * If you never call this method (or call it with 0), the whole view will be swiped. Also if there
+     * is no view in a list item, with the given id, the whole view will be swiped.
+     * <p>
+     * <b>Note:</b> This method requires the <i>Swipe to Dismiss</i> feature enabled. Use
+     * {@link #enableSwipeToDismiss()} to enable the feature.
+     *
+     * @param swipingLayoutId The id (from R.id) of the view, that should be swiped.
+     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     */
+    public EnhancedListView setSwipingLayout(int swipingLayoutId) {
+        mSwipingLayout = swipingLayoutId;
+        return this;
+    }
+
+    /**
+     * Sets a recorder, that will write all touch events reaching this list together with the
+     * geometry of the list into a trace. Such a trace can be replayed on a plain JVM with the
+     * {@link de.timroes.android.listview.GestureTraceReplayer}. Pass {@code null} to stop recording.
+     *
+     * @param recorder The recorder to write the touch events to.
+     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     */
+    public EnhancedListView setGestureTraceRecorder(GestureTraceRecorder recorder) {
+        mGestureTraceRecorder = recorder;
+        return this;
+    }
+
+    /**
+     * Sets the listener that will receive notifications every time the list scrolls.
+     * The list uses its own scroll listener internally, so this listener will be called by the list
+     * instead of replacing it. It also won't replace listeners added via
+     * {@link #addOnScrollListener(android.widget.AbsListView.OnScrollListener)}.
+     *
+     * @param l The scroll listener or {@code null} to remove the listener.
+     */
+    @Override
+    public void setOnScrollListener(OnScrollListener l) {
+        mOnScrollListener = l;
+    }
+
+    /**
+     * Adds a listener that will receive notifications every time the list scrolls, additionally
+     * to the listener set via {@link #setOnScrollListener(android.widget.AbsListView.OnScrollListener)}.
+     *
+     * @param l The scroll listener to add.
+     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     */
+    public EnhancedListView addOnScrollListener(OnScrollListener l) {
+        if(l != null && !mScrollListeners.contains(l)) {
+            mScrollListeners.add(l);
+        }
+        return this;
+    }
+
+    /**
+     * Removes a listener added via {@link #addOnScrollListener(android.widget.AbsListView.OnScrollListener)}.
+     *
+     * @param l The scroll listener to remove.
+     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     */
+    public EnhancedListView removeOnScrollListener(OnScrollListener l) {
+        mScrollListeners.remove(l);
+        return this;
+    }
+
+    /**
+     * Returns the logic deciding about swipes of this list.
+     *
+     * @return The swipe logic of this list.
+     */
+    SwipeDismissLogic getSwipeLogic() {
+        return mSwipeLogic;
+    }
+
+    /**
+     * Writes the last events of the dismiss pipeline of this list (touches, slide outs, collapses,
+     * dismisses, discards and undos) with their timestamps to the given writer. The timestamps
+     * use the same clock as systrace, so they can be lined up with a trace of the application.
+     * Call this e.g. from {@link android.app.Activity#dump} or when the user reports jank.
+     *
+     * @param writer The writer to dump the events to.
+     */
+    public void dumpPipelineEvents(PrintWriter writer) {
+        mEventLog.dump(writer);
+    }
+
+    /**
+     * Records an event of the dismiss pipeline in the event log of this list.
+     *
+     * @param event The event type, one of the constants in {@link PipelineEventLog}.
+     * @param arg An argument of the event, e.g. the position of the item.
+     */
+    void logEvent(int event, int arg) {
+        mEventLog.log(event, arg);
+    }
+
+    /**
+     * Returns the number of items, that have been dismissed, but for which the
+     * {@link de.timroes.android.listview.EnhancedListView.OnDismissCallback} hasn't been called yet.
+     * These are all items, that are currently sliding out or collapsing, waiting for other
+     * animations to finish or shown as inline undo rows.
+     *
+     * @return The number of pending dismisses.
+     */
+    public int getPendingDismissCount() {
+        int count = mAnimatedViews.size() + mInlineUndos.size() + mCommitBatch.size() - mCommitIndex;
+        for(PendingDismissData dismiss : mPendingDismisses) {
+            // Collapsing items are also running, don't count them twice
+            if(!dismiss.collapsing) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Hands the list a new snapshot of its data, e.g. after a sync changed the data, while items
+     * are being dismissed or undos are pending. Instead of just calling
+     * {@link android.widget.BaseAdapter#notifyDataSetChanged()}, this computes the difference between the
+     * current data of the adapter and the snapshot in the background. As soon as no dismiss
+     * animation is running, {@code applySnapshot} is called, which must replace the data of your
+     * adapter by the snapshot and notify the adapter. The list then moves all pending dismisses,
+     * inline undo rows and the positions passed to {@link Undoable#undoAt(int)} to the new
+     * positions of their items, keeps the first visible item in place and fades in inserted items.
+     * Pending dismisses of items, that aren't part of the snapshot anymore, are dropped.
+     * <p>
+     * The items are identified by {@link android.widget.Adapter#getItemId(int)}, so your adapter
+     * should have stable ids. The snapshot should not contain items, that are pending to be undone,
+     * since they aren't part of the adapter either. If another snapshot is submitted before this one
+     * has been applied, this one is dropped. Call this on the main thread.
+     *
+     * @param ids The ids of all items of the snapshot in the order of the adapter.
+     * @param applySnapshot Replaces the data of the adapter by the snapshot. Called on the main thread.
+     * @throws java.lang.IllegalStateException when this method is called before an adapter is set.
+     */
+    public void submitSnapshot(long[] ids, Runnable applySnapshot) {
+        if(mObservedAdapter == null) {
+            throw new IllegalStateException("You must set an adapter, before submitting snapshots.");
+        }
+        mSnapshotIds = ids;
+        mSnapshotApply = applySnapshot;
+        startSnapshotDiff();
+    }
+
+    /**
+     * Starts computing the difference between the adapter and the latest submitted snapshot.
+     */
+    private void startSnapshotDiff() {
+        if(mSnapshotTask != null) {
+            mSnapshotTask.cancel(false);
+        }
+        mSnapshotDiff = null;
+        mSnapshotGeneration = mDataGeneration;
+        mSnapshotTask = new SnapshotTask(getAdapterIds(), mSnapshotIds);
+        mSnapshotTask.execute();
+    }
+
+    /**
+     * Returns the ids of all items of the adapter.
+     *
+     * @return The ids in the order of the adapter.
+     */
+    private long[] getAdapterIds() {
+        long[] ids = new long[mObservedAdapter.getCount()];
+        for(int i = 0; i < ids.length; i++) {
+            ids[i] = mObservedAdapter.getItemId(i);
+        }
+        return ids;
+    }
+
+    /**
+     * Applies the latest submitted snapshot, if its difference has been computed and no dismiss
+     * animation or commit is running.
+     */
+    private void applySnapshotIfIdle() {
+        if(mSnapshotApply == null || mSnapshotTask != null || mCommitting || !mAnimatedViews.isEmpty()
+                || !mPendingDismisses.isEmpty() || !mDeferredCollapses.isEmpty() || mCommitDeferred
+                || mScrollState == OnScrollListener.SCROLL_STATE_FLING) {
+            // Collapsed items are waiting for their commit, it will apply the snapshot afterwards
+            return;
+        }
+        if(mSnapshotDiff == null || mSnapshotGeneration != mDataGeneration) {
+            // The adapter changed meanwhile (e.g. by a commit), so the difference must be computed again
+            startSnapshotDiff();
+            return;
+        }
+        applySnapshot();
+    }
+
+    /**
+     * Applies the latest submitted snapshot immediately, before the list is detached.
+     */
+    private void flushSnapshot() {
+        if(mSnapshotApply == null || mCommitting || !mAnimatedViews.isEmpty()) {
+            return;
+        }
+        if(mSnapshotTask != null) {
+            mSnapshotTask.cancel(false);
+            mSnapshotTask = null;
+        }
+        if(mSnapshotDiff == null || mSnapshotGeneration != mDataGeneration) {
+            mSnapshotDiff = SnapshotDiff.compute(getAdapterIds(), mSnapshotIds);
+        }
+        applySnapshot();
+    }
+
+    /**
+     * Drops the latest submitted snapshot without applying it.
+     */
+    private void dropSnapshot() {
+        if(mSnapshotTask != null) {
+            mSnapshotTask.cancel(false);
+            mSnapshotTask = null;
+        }
+        mSnapshotIds = null;
+        mSnapshotApply = null;
+        mSnapshotDiff = null;
+    }
+
+    /**
+     * Lets the app apply the latest submitted snapshot and moves everything, that refers to
+     * positions of the adapter, to the new positions.
+     */
+    private void applySnapshot() {
+
+        SnapshotDiff diff = mSnapshotDiff;
+        Runnable applySnapshot = mSnapshotApply;
+        mSnapshotIds = null;
+        mSnapshotApply = null;
+        mSnapshotDiff = null;
+
+        PipelineEventLog.beginSection("ELV:applySnapshot");
+
+        int headers = getHeaderViewsCount();
+        int first = getFirstVisiblePosition();
+        View firstChild = getChildAt(0);
+        int top = firstChild != null ? firstChild.getTop() : 0;
+
+        applySnapshot.run();
+
+        mDismissedPositions.clear();
+        remapDismisses(mPendingDismisses, diff);
+        remapDismisses(mInlineUndos, diff);
+        mUndoIndex.remap(diff);
+
+        // Keep the first visible item in place, instead of letting the list snap
+        if(firstChild != null && first >= headers && diff.getNewCount() > 0) {
+            int anchor = diff.mapPosition(first - headers);
+            if(anchor < 0) {
+                anchor = Math.min(diff.mapGap(first - headers), diff.getNewCount() - 1);
+            }
+            setSelectionFromTop(anchor + headers, top);
+        }
+        fadeInInsertedRows(diff);
+
+        PipelineEventLog.endSection();
+    }
+
+    /**
+     * Moves pending dismisses to the positions of their items in a new snapshot and drops the
+     * dismisses of items, that have been removed.
+     *
+     * @param dismisses The pending dismisses.
+     * @param diff The difference between the old and the new snapshot.
+     */
+    private void remapDismisses(List<PendingDismissData> dismisses, SnapshotDiff diff) {
+        int headers = getHeaderViewsCount();
+        for(int i = dismisses.size() - 1; i >= 0; i--) {
+            PendingDismissData dismiss = dismisses.get(i);
+            int oldPosition = dismiss.listPosition - headers;
+            int newPosition = diff.mapPosition(oldPosition);
+            if(newPosition < 0) {
+                dismisses.remove(i);
+                if(dismiss == mInlineUndoTouched) {
+                    mInlineUndoTouched = null;
+                }
+                cancelDismiss(dismiss.position);
+                restoreDismissedView(dismiss);
+                recycleDismiss(dismiss);
+                continue;
+            }
+            dismiss.position += newPosition - oldPosition;
+            dismiss.listPosition += newPosition - oldPosition;
+            mDismissedPositions.set(dismiss.listPosition);
+        }
+    }
+
+    /**
+     * Fades in all visible items, that have been inserted by a snapshot, as soon as the list has
+     * been laid out with the new data.
+     *
+     * @param diff The difference between the old and the new snapshot.
+     */
+    private void fadeInInsertedRows(final SnapshotDiff diff) {
+        getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                getViewTreeObserver().removeOnPreDrawListener(this);
+                int headers = getHeaderViewsCount();
+                int first = getFirstVisiblePosition();
+                int childCount = getChildCount();
+                for(int i = 0; i < childCount; i++) {
+                    int position = first + i - headers;
+                    if(position >= 0 && position < diff.getNewCount() && diff.isInserted(position)) {
+                        SlideAnimations.fadeIn(getChildAt(i), mAnimationTime);
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Discard all stored undos and hide the undo popup dialog.
+     * This method must be called in {@link android.app.Activity#onStop()}. Otherwise
+     * {@link EnhancedListView.Undoable#discard()} might not be called for several items, what might
+     * break your data consistency.
+     * <p>
+     * If this list shares its {@link de.timroes.android.listview.UndoManager} with other lists,
+     * the undos of these lists will be discarded, too.
+     */
+    public void discardUndo() {
+        mUndoManager.discardUndo();
+    }
+
+    /**
+     * Commits all inline undos and drops the view used to draw the inline undo rows, so it can
+     * be garbage collected. This is called when the system asks the application to trim its memory.
+     */
+    void releaseUndoResources() {
+        commitInlineUndos(false);
+        mInlineUndoView = null;
+        mDismissPool.clear();
+        mRecordPool.clear();
+        mExpandingRowPool.clear();
+        mUndoIndex.releasePool();
+    }
+
+    /**
+     * Returns a pending dismiss from the pool or creates a new one.
+     *
+     * @param position The position of the item.
+     * @param view The view, that should get swiped out.
+     * @param childView The whole list item view.
+     * @return The pending dismiss.
+     */
+    private PendingDismissData obtainDismiss(int position, View view, View childView) {
+        PendingDismissData dismiss = mDismissPool.isEmpty()
+                ? new PendingDismissData()
+                : mDismissPool.remove(mDismissPool.size() - 1);
+        dismiss.reset(position, view, childView);
+        return dismiss;
+    }
+
+    /**
+     * Returns a pending dismiss to the pool, after it has been committed or undone.
+     *
+     * @param dismiss The pending dismiss.
+     */
+    private void recycleDismiss(PendingDismissData dismiss) {
+        dismiss.view = dismiss.childView = null;
+        mDismissPool.add(dismiss);
+    }
+
+    /**
+     * Resets the collapsed list item view of a dismiss, so it can show other items again.
+     *
+     * @param dismiss The dismiss.
+     */
+    private void restoreDismissedView(PendingDismissData dismiss) {
+        if(dismiss.childView == null) {
+            // The item wasn't visible anymore, when it got dismissed
+            return;
+        }
+        ViewHelper.setAlpha(dismiss.view, 1f);
+        ViewHelper.setTranslationX(dismiss.view, 0);
+        ViewGroup.LayoutParams lp = dismiss.childView.getLayoutParams();
+        lp.height = dismiss.originalLayoutHeight;
+        dismiss.childView.setLayoutParams(lp);
+    }
+
+    /**
+     * Returns an undo record for the {@link OnDismissRecordCallback} from the pool or creates a new one.
+     *
+     * @param position The position of the dismissed item.
+     * @param id The id of the dismissed item.
+     * @return The undo record.
+     */
+    private DismissRecord obtainRecord(int position, long id) {
+        DismissRecord record = mRecordPool.isEmpty()
+                ? new DismissRecord()
+                : mRecordPool.remove(mRecordPool.size() - 1);
+        record.mCallback = mDismissRecordCallback;
+        record.mPosition = position;
+        record.mId = id;
+        return record;
+    }
+
+    /**
+     * Returns an undo record to the pool, after it has been undone or discarded.
+     *
+     * @param record The undo record.
+     */
+    private void recycleRecord(DismissRecord record) {
+        record.mCallback = null;
+        mRecordPool.add(record);
+    }
+
+    /**
+     * Delete the list item at the specified position. This will animate the item sliding out of the
+     * list and then collapsing until it vanished (same as if the user slides out an item).
+     * <p>
+     * NOTE: If you are using list headers, be aware, that the position argument must take care of
+     * them. Meaning 0 references the first list header. So if you want to delete the first list
+     * item, you have to pass the number of list headers as {@code position}. Most of the times
+     * that shouldn't be a problem, since you most probably will evaluate the position which should
+     * be deleted in a way, that respects the list headers.
+     * <p>
+     * Items that aren't visible are dismissed without any animation. All items deleted while no
+     * animation is running are committed together in the next frame.
+     *
+     * @param position The position of the item in the list.
+     * @throws java.lang.IndexOutOfBoundsException when trying to delete an item outside of the list range.
+     * @throws java.lang.IllegalStateException when this method is called before an {@link EnhancedListView.OnDismissCallback}
+     *      is set via {@link #setDismissCallback(de.timroes.android.listview.EnhancedListView.OnDismissCallback)}.
+     * */
+    public void delete(int position) {
+        if(mDismissCallback == null && mDismissRecordCallback == null) {
+            throw new IllegalStateException("You must set an OnDismissCallback, before deleting items.");
+        }
+        if(mCommitting) {
+            // Positions are only valid after the running commit
+            finishCommit();
+        }
+        if(position < 0 || position >= getCount()) {
+            throw new IndexOutOfBoundsException(String.format("Tried to delete item %d. #items in list: %d", position, getCount()));
+        }
+        // Dismisses hold the position in the adapter, like the dismisses of swiped items
+        int adapterPosition = position - getHeaderViewsCount();
+        if(adapterPosition < 0 || mObservedAdapter == null || adapterPosition >= mObservedAdapter.getCount()) {
+            throw new IndexOutOfBoundsException(String.format("Tried to delete header or footer %d.", position));
+        }
+        if(mDismissedPositions.get(position) || findInlineUndo(position) != null) {
+            // The item has already been dismissed and is waiting for its commit or undo
+            return;
+        }
+        View childView = getChildAt(position - getFirstVisiblePosition());
+        if(childView != null) {
+            slideOutView(getSwipingView(childView), childView, adapterPosition, true);
+        } else {
+            dismissOffscreen(adapterPosition);
+        }
+    }
+
+    /**
+     * Deletes the item with the given stable id, like {@link #delete(int)}. This may be called
+     * from any thread, e.g. when a sync thread learns that an item has been deleted on a server.
+     * All deletes and restores submitted until the next frame are run together on the UI thread,
+     * so their items animate as one batch. If the item can't be found in the adapter, or has
+     * already been dismissed, the delete is ignored.
+     * <p>
+     * The adapter of the list must have stable ids. Commands, that are still waiting for their
+     * frame, when the adapter is replaced by one without stable ids, are ignored.
+     *
+     * @param id The stable id of the item.
+     * @throws java.lang.IllegalStateException If the adapter of the list doesn't have stable ids.
+     */
+    public void submitDelete(long id) {
+        submitDismissCommand(new DismissCommand(id, false));
+    }
+
+    /**
+     * Undoes the dismiss of the item with the given stable id. This may be called from any thread
+     * and is batched with the deletes submitted via {@link #submitDelete(long)}. Only dismisses,
+     * that wait for their undo, can be restored. If a delete and a restore of the same item are
+     * submitted for the same frame, only the one submitted last is run.
+     * <p>
+     * The adapter of the list must have stable ids. Commands, that are still waiting for their
+     * frame, when the adapter is replaced by one without stable ids, are ignored.
+     *
+     * @param id The stable id of the item.
+     * @throws java.lang.IllegalStateException If the adapter of the list doesn't have stable ids.
+     */
+    public void submitRestore(long id) {
+        submitDismissCommand(new DismissCommand(id, true));
+    }
+
+    private void submitDismissCommand(DismissCommand command) {
+        if(!mAdapterHasStableIds) {
+            throw new IllegalStateException("Submitting deletes and restores requires an adapter with stable ids.");
+        }
+        mDismissCommands.add(command);
+        // Only the first command after the last run posts a new run
+        if(mDismissCommandsScheduled.compareAndSet(false, true)) {
+            mMainHandler.post(mScheduleDismissCommandsRunnable);
+        }
+    }
+
+    /**
+     * Runs all submitted deletes and restores on the UI thread. The restores are run first, so the
+     * adapter positions of the deleted items are found in the adapter, that contains the restored
+     * items. The positions are taken from the {@link OnFindPositionCallback} if it has been set,
+     * otherwise from a single pass over the adapter.
+     */
+    private void runDismissCommands() {
+
+        // Commands submitted from now on need another run
+        mDismissCommandsScheduled.set(false);
+
+        DismissCommand command;
+        while((command = mDismissCommands.poll()) != null) {
+            mCommandBatch.add(command);
+        }
+        if(mCommandBatch.isEmpty()) {
+            return;
+        }
+        if(mObservedAdapter == null || !mObservedAdapter.hasStableIds()) {
+            // The adapter has been replaced since the commands have been submitted
+            mCommandBatch.clear();
+            return;
+        }
+
+        // Only the last command per item counts
+        mCommandIds.clear();
+        for(int i = mCommandBatch.size() - 1; i >= 0; i--) {
+            command = mCommandBatch.get(i);
+            mCommandIds.addBackwards(command.id, command.restore);
+        }
+        mCommandBatch.clear();
+
+        PipelineEventLog.beginSection("ELV:runDismissCommands");
+
+        if(mCommitting) {
+            // Positions are only valid after the running commit
+            finishCommit();
+        }
+
+        if(mCommandIds.getRestoreCount() > 0) {
+            for(int i = mInlineUndos.size() - 1; i >= 0; i--) {
+                PendingDismissData inlineUndo = mInlineUndos.get(i);
+                if(mCommandIds.isRestored(mObservedAdapter.getItemId(inlineUndo.position))) {
+                    undoInline(inlineUndo);
+                }
+            }
+            mUndoManager.undoItems(this, mCommandIds.getRestoreIds(), mCommandIds.getRestoreCount());
+        }
+
+        int deleteCount = mCommandIds.getDeleteCount();
+        if(deleteCount > 0) {
+            // Deleting doesn't change the adapter before the next commit
+            int headers = getHeaderViewsCount();
+            if(mFindPositionCallback != null) {
+                int count = mObservedAdapter.getCount();
+                for(int i = 0; i < deleteCount; i++) {
+                    long id = mCommandIds.getDeleteId(i);
+                    int position = mFindPositionCallback.getPositionForId(this, id);
+                    if(position >= 0 && position < count && mObservedAdapter.getItemId(position) == id) {
+                        delete(position + headers);
+                    }
+                }
+            } else {
+                int found = mCommandIds.findDeletePositions(mAdapterItems);
+                for(int i = 0; i < found; i++) {
+                    delete(mCommandIds.getDeletePosition(i) + headers);
+                }
+            }
+        }
+
+        PipelineEventLog.endSection();
+
+    }
+
+    /**
+     * Dismisses an item, that isn't visible, without any animation.
+     *
+     * @param position The position of the item in the adapter.
+     */
+    private void dismissOffscreen(int position) {
+        mEventLog.log(PipelineEventLog.SLIDE_OUT_START, position);
+        prepareDismiss(position, true);
+        int listPosition = position + getHeaderViewsCount();
+        mDismissedPositions.set(listPosition);
+        PendingDismissData dismiss = obtainDismiss(position, null, null);
+        dismiss.listPosition = listPosition;
+        dismiss.inline = mUndoStyle == UndoStyle.INLINE;
+        if(dismiss.inline) {
+            mInlineUndos.add(dismiss);
+            if(!mTouchBeforeAutoHide) {
+                scheduleInlineCommit();
+            }
+            return;
+        }
+        mPendingDismisses.add(dismiss);
+        // If animations are running, the item will be committed together with them
+        if(mAnimatedViews.isEmpty() && !mOffscreenCommitScheduled) {
+            mOffscreenCommitScheduled = true;
+            post(mOffscreenCommitRunnable);
+        }
+    }
+
+    /**
+     * Returns the view, that should be moved when the given list item is swiped. This is the view
+     * with the id set via {@link #setSwipingLayout(int)} or the list item itself.
+     *
+     * @param childView The whole view of the list item.
+     * @return The view to swipe.
+     */
+    private View getSwipingView(View childView) {
+        View view = null;
+        if(mSwipingLayout > 0) {
+            view = childView.findViewById(mSwipingLayout);
+        }
+        return view != null ? view : childView;
+    }
+
+    /**
+     * Slide out a view to the right or left of the list. After the animation has finished, the
+     * view will be dismissed by calling {@link #performDismiss(PendingDismissData)}.
+     *
+     * @param view The view, that should be slided out.
+     * @param childView The whole view of the list item.
+     * @param position The position of the item in the adapter.
+     * @param toRightSide Whether it should slide out to the right side.
+     */
+    private void slideOutView(View view, View childView, int position, boolean toRightSide) {
+
+        // Only start new animation, if this view isn't already animated (too fast swiping bug)
+        if(mAnimatedViews.containsKey(view)) {
+            return;
+        }
+
+        PipelineEventLog.beginSection("ELV:slideOutView");
+        mEventLog.log(PipelineEventLog.SLIDE_OUT_START, position);
+        prepareDismiss(position, true);
+
+        PendingDismissData dismiss = obtainDismiss(position, view, childView);
+        dismiss.listPosition = getPositionForView(childView);
+        dismiss.inline = mUndoStyle == UndoStyle.INLINE;
+        mAnimatedViews.put(view, dismiss);
+        mDismissedPositions.set(dismiss.listPosition);
+
+        // The dismiss continues, when the animation ends
+        SlideAnimations.slideOut(view, toRightSide ? mViewWidth : -mViewWidth, mAnimationTime, dismiss);
+
+        PipelineEventLog.endSection();
+    }
+
+    @Override
+    public boolean onInterceptTouchEvent(MotionEvent ev) {
+        if(mCommitting) {
+            // The items don't match the adapter until the commit has finished
+            return true;
+        }
+        // Take all touches of inline undo rows, so the hidden list item won't get them
+        if(ev.getActionMasked() == MotionEvent.ACTION_DOWN && !mInlineUndos.isEmpty()) {
+            mInlineUndoTouched = findInlineUndoAt(ev);
+            if(mInlineUndoTouched != null) {
+                return true;
+            }
+        }
+        return super.onInterceptTouchEvent(ev);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent ev) {
+        PipelineEventLog.beginSection("ELV:onTouchEvent");
+        try {
+            return handleTouchEvent(ev);
+        } finally {
+            PipelineEventLog.endSection();
+        }
+    }
+
+    /**
+     * Handles a touch event of this list. Called by {@link #onTouchEvent(android.view.MotionEvent)}
+     * inside its trace section.
+     *
+     * @param ev The touch event.
+     * @return Whether the event has been handled.
+     */
+    private boolean handleTouchEvent(MotionEvent ev) {
+
+        if(mCommitting) {
+            int action = ev.getActionMasked();
+            if(action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+                // End the gesture without letting the list click or fling the out of date items
+                cancelSwipe();
+                MotionEvent cancelEvent = MotionEvent.obtain(ev);
+                cancelEvent.setAction(MotionEvent.ACTION_CANCEL);
+                super.onTouchEvent(cancelEvent);
+                cancelEvent.recycle();
+            }
+            return true;
+        }
+
+        if(mInlineUndoTouched != null) {
+            switch(ev.getActionMasked()) {
+                case MotionEvent.ACTION_UP:
+                    if(findInlineUndoAt(ev) == mInlineUndoTouched) {
+                        undoInline(mInlineUndoTouched);
+                    }
+                    mInlineUndoTouched = null;
+                    break;
+                case MotionEvent.ACTION_CANCEL:
+                    mInlineUndoTouched = null;
+                    break;
+            }
+            return true;
+        }
+
+        if(mGestureTraceRecorder != null) {
+            mGestureTraceRecorder.record(this, ev);
+        }
+
+        if(mTouchBeforeAutoHide && !mInlineUndos.isEmpty()) {
+            scheduleInlineCommit();
+        }
+
+        if (!mSwipeEnabled) {
+            return super.onTouchEvent(ev);
+        }
+
+        // Send a delayed message to hide popup
+        mUndoManager.onListTouched(this);
+
+        // Store width of this list for usage of swipe distance detection
+        if (mViewWidth < 2) {
+            mViewWidth = getWidth();
+            mSwipeLogic.setViewWidth(mViewWidth);
+        }
+
+        switch (ev.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN: {
+                if (mSwipePaused) {
+                    return super.onTouchEvent(ev);
+                }
+
+                // TODO: ensure this is a finger, and set a flag
+
+                // Find the child view that was touched (perform a hit test)
+                Rect rect = mHitRect;
+                int childCount = getChildCount();
+                int[] listViewCoords = mLocationOnScreen;
+                getLocationOnScreen(listViewCoords);
+                int x = (int) ev.getRawX() - listViewCoords[0];
+                int y = (int) ev.getRawY() - listViewCoords[1];
+                View child;
+                for (int i = getHeaderViewsCount(); i < childCount; i++) {
+                    child = getChildAt(i);
+                    if(child != null) {
+                        child.getHitRect(rect);
+                        if (rect.contains(x, y)) {
+                            // if a specific swiping layout has been giving, use this to swipe.
+                            if(mSwipingLayout > 0) {
+                                View swipingView = child.findViewById(mSwipingLayout);
+                                if(swipingView != null) {
+                                    mSwipeDownView = swipingView;
+                                    mSwipeDownChild = child;
+                                    break;
+                                }
+                            }
+                            // If no swiping layout has been found, swipe the whole child
+                            mSwipeDownView = mSwipeDownChild = child;
+                            break;
+                        }
+                    }
+                }
+
+                if (mSwipeDownView != null) {
+                    // test if the item should be swiped
+                    int position = getPositionForView(mSwipeDownView) - getHeaderViewsCount();
+                    if (shouldSwipe(position)) {
+                        mSwipeLogic.setAllowedDirection(getAllowedSwipeDirection());
+                        mSwipeLogic.down(ev.getRawX());
+                        mDownPosition = position;
+                        mEventLog.log(PipelineEventLog.TOUCH_DOWN, position);
+
+                        mVelocityTracker = VelocityTracker.obtain();
+                        mVelocityTracker.addMovement(ev);
+                    } else {
+                        // set back to null to revert swiping
+                        mSwipeDownView = mSwipeDownChild = null;
+                    }
+                }
+                super.onTouchEvent(ev);
+                return true;
+            }
+
+            case MotionEvent.ACTION_UP: {
+                if (mVelocityTracker == null) {
+                    break;
+                }
+
+                mVelocityTracker.addMovement(ev);
+                mVelocityTracker.computeCurrentVelocity(1000);
+                float velocityX = mVelocityTracker.getXVelocity();
+                float velocityY = mVelocityTracker.getYVelocity();
+                if(mGestureTraceRecorder != null) {
+                    mGestureTraceRecorder.recordVelocity(velocityX, velocityY);
+                }
+                cancelSwipeFrame();
+                int dismiss = mSwipeLogic.up(ev.getRawX(), velocityX, velocityY);
+                if (dismiss != SwipeDismissLogic.DISMISS_NONE) {
+                    // dismiss
+                    slideOutView(mSwipeDownView, mSwipeDownChild, mDownPosition,
+                            dismiss == SwipeDismissLogic.DISMISS_RIGHT);
+                } else if(mSwipeLogic.isSwiping()) {
+                    // Swipe back to regular position
+                    SlideAnimations.slideBack(mSwipeDownView, mAnimationTime);
+                }
+                // Does nothing, if the prepared item is sliding out now
+                cancelPreparedDismiss();
+                mVelocityTracker.recycle();
+                mVelocityTracker = null;
+                mSwipeDownView = null;
+                mSwipeDownChild = null;
+                mDownPosition = AbsListView.INVALID_POSITION;
+                mSwipeLogic.reset();
+                break;
+            }
+
+            case MotionEvent.ACTION_CANCEL: {
+                // E.g. a parent took over the gesture, so the item stays in the list
+                cancelSwipe();
+                break;
+            }
+
+            case MotionEvent.ACTION_MOVE: {
+
+                if (mVelocityTracker == null || mSwipePaused) {
+                    break;
+                }
+
+                // The velocity tracker also takes the historical samples batched into the event
+                mVelocityTracker.addMovement(ev);
+                boolean wasSwiping = mSwipeLogic.isSwiping();
+                int move = mSwipeLogic.move(ev.getRawX());
+                if(!wasSwiping && mSwipeLogic.isSwiping()) {
+                    mEventLog.log(PipelineEventLog.SWIPE_START, mDownPosition);
+                }
+                // Only start swipe in correct direction
+                if((move & SwipeDismissLogic.MOVE_DIRECTION_VALID) != 0) {
+                    ViewParent parent = getParent();
+                    if(parent != null) {
+                        // If we swipe don't allow parent to intercept touch (e.g. like NavigationDrawer does)
+                        // otherwise swipe would not be working.
+                        parent.requestDisallowInterceptTouchEvent(true);
+                    }
+                    if ((move & SwipeDismissLogic.MOVE_BEYOND_SLOP) != 0) {
+                        requestDisallowInterceptTouchEvent(true);
+
+                        // Cancel ListView's touch (un-highlighting the item)
+                        MotionEvent cancelEvent = MotionEvent.obtain(ev);
+                        cancelEvent.setAction(MotionEvent.ACTION_CANCEL
+                                | (ev.getActionIndex()
+                                << MotionEvent.ACTION_POINTER_INDEX_SHIFT));
+                        super.onTouchEvent(cancelEvent);
+                    }
+                }
+
+                if (mSwipeLogic.isSwiping()) {
+                    // Let the app prepare the dismiss, while the user is still swiping
+                    if(mSwipeLogic.isBeyondDismissDistance()) {
+                        prepareDismiss(mDownPosition, false);
+                    } else {
+                        cancelPreparedDismiss();
+                    }
+                    requestSwipeFrame();
+                    return true;
+                }
+                break;
+            }
+        }
+        return super.onTouchEvent(ev);
+    }
+
+    /**
+     * Tells the dismiss preparation callback, that the item at the given position will be
+     * dismissed, unless it has already been told so during the swipe of the item.
+     *
+     * @param position The position, that will be passed to the dismiss callback.
+     * @param committed Whether the item is going to be dismissed for sure. Otherwise it is swiped
+     *                  beyond the threshold and the dismiss can still be canceled.
+     */
+    private void prepareDismiss(int position, boolean committed) {
+        if(mPreparedPosition == position) {
+            if(committed) {
+                // The dismiss can't be canceled anymore
+                mPreparedPosition = AbsListView.INVALID_POSITION;
+            }
+            return;
+        }
+        if(!committed) {
+            mPreparedPosition = position;
+        }
+        if(mDismissPreparationCallback != null) {
+            mDismissPreparationCallback.onPrepareDismiss(this, position);
+        }
+    }
+
+    /**
+     * Tells the dismiss preparation callback, that the swiped item won't be dismissed anymore.
+     */
+    private void cancelPreparedDismiss() {
+        if(mPreparedPosition == AbsListView.INVALID_POSITION) {
+            return;
+        }
+        int position = mPreparedPosition;
+        mPreparedPosition = AbsListView.INVALID_POSITION;
+        cancelDismiss(position);
+    }
+
+    /**
+     * Tells the dismiss preparation callback, that an item, whose dismiss has already been
+     * committed to, won't be dismissed anymore.
+     *
+     * @param position The position of the item in the adapter.
+     */
+    private void cancelDismiss(int position) {
+        if(mDismissPreparationCallback != null) {
+            mDismissPreparationCallback.onCancelDismiss(this, position);
+        }
+    }
+
+    /**
+     * Ends the swipe in progress, if any, and slides the swiped item back to its position. If the
+     * item has been prepared to be dismissed, the preparation is canceled.
+     */
+    private void cancelSwipe() {
+        cancelPreparedDismiss();
+        if(mVelocityTracker == null) {
+            return;
+        }
+        cancelSwipeFrame();
+        if(mSwipeLogic.isSwiping() && mSwipeDownView != null) {
+            SlideAnimations.slideBack(mSwipeDownView, mAnimationTime);
+        }
+        mVelocityTracker.recycle();
+        mVelocityTracker = null;
+        mSwipeDownView = mSwipeDownChild = null;
+        mDownPosition = AbsListView.INVALID_POSITION;
+        mSwipeLogic.reset();
+    }
+
+    /**
+     * Updates the swiped item. On API level 16 and above this is done once per frame, when the
+     * frame is drawn, no matter how many move events arrived meanwhile. On older devices the item
+     * is updated immediately.
+     */
+    private void requestSwipeFrame() {
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            applySwipeTranslation();
+            return;
+        }
+        if(mSwipeFramePending) {
+            return;
+        }
+        if(mSwipeFrameCallback == null) {
+            mSwipeFrameCallback = new SwipeFrameCallback();
+        }
+        mSwipeFramePending = true;
+        ((SwipeFrameCallback) mSwipeFrameCallback).post();
+    }
+
+    /**
+     * Drops an update of the swiped item, that has been requested for the next frame.
+     */
+    private void cancelSwipeFrame() {
+        if(mSwipeFramePending) {
+            mSwipeFramePending = false;
+            ((SwipeFrameCallback) mSwipeFrameCallback).remove();
+        }
+    }
+
+    /**
+     * Moves and fades the swiped item according to the last position of the finger.
+     */
+    private void applySwipeTranslation() {
+        if(mSwipeDownView == null || !mSwipeLogic.isSwiping()) {
+            return;
+        }
+        ViewHelper.setTranslationX(mSwipeDownView, mSwipeLogic.getDeltaX());
+        ViewHelper.setAlpha(mSwipeDownView, mSwipeLogic.getAlpha());
+    }
+
+    /**
+     * Animate the dismissed list item to zero-height and fire the dismiss callback when
+     * all dismissed list item animations have completed.
+     *
+     * @param dismiss The pending dismiss, holding the view that has been slided out, the whole
+     *                list item view and the position of the view inside the list.
+     */
+    private void performDismiss(PendingDismissData dismiss) {
+
+        PipelineEventLog.beginSection("ELV:performDismiss");
+
+        dismiss.originalLayoutHeight = dismiss.childView.getLayoutParams().height;
+        dismiss.collapseHeight = dismiss.childView.getHeight();
+        rememberRowHeight(dismiss.position, dismiss.collapseHeight);
+
+        if(dismiss.animator == null) {
+            dismiss.animator = ValueAnimator.ofFloat(0f, 1f);
+            dismiss.animator.addListener(dismiss);
+            dismiss.animator.addUpdateListener(dismiss);
+        }
+        dismiss.animator.setDuration(mAnimationTime);
+        dismiss.collapsing = true;
+        mPendingDismisses.add(dismiss);
+        dismiss.animator.start();
+
+        schedulePrefetch(dismiss.collapseHeight);
+
+        PipelineEventLog.endSection();
+    }
+
+    /**
+     * Predicts which rows will be revealed below the last visible row, when all running
+     * collapses have finished, and creates them whenever the main thread is idle.
+     *
+     * @param collapsingHeight The height of the item, that just started collapsing.
+     */
+    private void schedulePrefetch(int collapsingHeight) {
+
+        mCollapsingHeight += collapsingHeight;
+        int childCount = getChildCount();
+        if(mPrefetchBudget <= 0 || mPrefetchingAdapter == null || childCount == 0) {
+            return;
+        }
+
+        // Estimate the number of revealed rows by the average height of the visible rows
+        int averageHeight = Math.max((getChildAt(childCount - 1).getBottom() - getChildAt(0).getTop()) / childCount, 1);
+        int revealed = (mCollapsingHeight + averageHeight - 1) / averageHeight;
+
+        // Rows, that have already been created, are skipped
+        int first = getLastVisiblePosition() - getHeaderViewsCount() + 1;
+        mPrefetchNext = first;
+        mPrefetchEnd = Math.min(first + revealed, mPrefetchingAdapter.getCount());
+
+        if(!mPrefetchScheduled && mPrefetchNext < mPrefetchEnd) {
+            mPrefetchScheduled = true;
+            Looper.myQueue().addIdleHandler(mPrefetchIdleHandler);
+        }
+
+    }
+
+    /**
+     * Creates the predicted rows until the time budget is used up.
+     *
+     * @param budget The time budget in nanoseconds.
+     * @return Whether rows are left to create.
+     */
+    private boolean prefetchRevealedRows(long budget) {
+
+        if(mCommitting || mPrefetchingAdapter == null) {
+            // The positions won't be valid anymore after the commit
+            return false;
+        }
+
+        PipelineEventLog.beginSection("ELV:prefetch");
+        long start = System.nanoTime();
+        // Rows, that the list already shows, don't need to be created
+        mPrefetchNext = Math.max(mPrefetchNext, getLastVisiblePosition() - getHeaderViewsCount() + 1);
+        while(mPrefetchNext < mPrefetchEnd && System.nanoTime() - start < budget) {
+            mPrefetchingAdapter.prefetch(mPrefetchNext++, this);
+        }
+        PipelineEventLog.endSection();
+
+        return mPrefetchNext < mPrefetchEnd;
+    }
+
+    /**
+     * Stops creating predicted rows and drops the rows, that haven't been used.
+     */
+    private void cancelPrefetch() {
+        if(mPrefetchScheduled) {
+            mPrefetchScheduled = false;
+            Looper.myQueue().removeIdleHandler(mPrefetchIdleHandler);
+        }
+        mCollapsingHeight = 0;
+        mPrefetchNext = mPrefetchEnd = 0;
+        if(mPrefetchingAdapter != null) {
+            mPrefetchingAdapter.clear();
+        }
+    }
+
+    /**
+     * Remembers the height of a dismissed row, so it can expand to it when its item gets restored.
+     * This only works for adapters with stable ids, since the position of the item will change.
+     *
+     * @param position The position of the item in the adapter.
+     * @param height The height of the row in pixels.
+     */
+    private void rememberRowHeight(int position, int height) {
+        if(mObservedAdapter != null && mObservedAdapter.hasStableIds()
+                && position >= 0 && position < mObservedAdapter.getCount()) {
+            mRowHeights.put(mObservedAdapter.getItemId(position), height);
+        }
+    }
+
+    /**
+     * Called by the {@link de.timroes.android.listview.UndoManager}, after an item of this list has
+     * been reinserted by its undo. As soon as the list has been laid out with the reinserted items,
+     * all their rows expand together.
+     *
+     * @param position The position, at which the item has been reinserted into the adapter.
+     */
+    void onItemRestored(int position) {
+
+        if(mRowHeights.size() == 0 || mObservedAdapter == null) {
+            return;
+        }
+
+        // Items restored before, at or below the position moved down by one
+        for(int i = 0; i < mRestoredCount; i++) {
+            if(mRestoredPositions[i] >= position) {
+                mRestoredPositions[i]++;
+            }
+        }
+        if(mRestoredCount == mRestoredPositions.length) {
+            int[] positions = new int[mRestoredCount * 2];
+            System.arraycopy(mRestoredPositions, 0, positions, 0, mRestoredCount);
+            mRestoredPositions = positions;
+        }
+        mRestoredPositions[mRestoredCount++] = position;
+
+        if(!mRestoreScheduled) {
+            mRestoreScheduled = true;
+            getViewTreeObserver().addOnPreDrawListener(mExpandRestoredRowsListener);
+        }
+
+    }
+
+    /**
+     * Called by the {@link de.timroes.android.listview.UndoManager}, after an undo of this list has
+     * been discarded. The item won't come back, so the height of its row is dropped.
+     *
+     * @param id The id of the item or {@link #INVALID_ROW_ID} if it didn't have a stable id.
+     */
+    void onItemDiscarded(long id) {
+        if(id != INVALID_ROW_ID) {
+            mRowHeights.remove(id);
+        }
+    }
+
+    /**
+     * Shrinks all visible rows of restored items to zero height and starts expanding them to the
+     * heights they had when they have been dismissed.
+     *
+     * @return Whether any row started expanding.
+     */
+    private boolean expandRestoredRows() {
+
+        int headers = getHeaderViewsCount();
+        int first = getFirstVisiblePosition();
+        int count = mObservedAdapter != null ? mObservedAdapter.getCount() : 0;
+        boolean started = false;
+        for(int i = 0; i < mRestoredCount; i++) {
+            int position = mRestoredPositions[i];
+            if(position >= count) {
+                continue;
+            }
+            // Drop the height even if the row isn't visible, it won't be needed anymore
+            int height = mRowHeights.remove(mObservedAdapter.getItemId(position));
+            View child = getChildAt(position + headers - first);
+            if(height <= 0 || child == null || mExpandingRows.containsKey(child)) {
+                continue;
+            }
+            ExpandingRow row = mExpandingRowPool.isEmpty()
+                    ? new ExpandingRow()
+                    : mExpandingRowPool.remove(mExpandingRowPool.size() - 1);
+            row.view = child;
+            row.originalLayoutHeight = child.getLayoutParams().height;
+            row.startHeight = 1;
+            row.targetHeight = height;
+            mExpandingRows.put(child, row);
+            setRowHeight(child, 1);
+            // Don't let the list recycle the view for another item, while it has the wrong height
+            ViewCompat.setHasTransientState(child, true);
+            started = true;
+        }
+        mRestoredCount = 0;
+
+        if(started) {
+            startExpandAnimation();
+        }
+        return started;
+
+    }
+
+    /**
+     * Starts the animation, that expands all restored rows. Rows, that are already expanding,
+     * continue from their current height.
+     */
+    private void startExpandAnimation() {
+
+        if(mExpandAnimator == null) {
+            mExpandAnimator = ValueAnimator.ofFloat(0f, 1f);
+            mExpandAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+                @Override
+                public void onAnimationUpdate(ValueAnimator animation) {
+                    float fraction = animation.getAnimatedFraction();
+                    for(ExpandingRow row : mExpandingRows.values()) {
+                        setRowHeight(row.view, row.startHeight + (int) ((row.targetHeight - row.startHeight) * fraction));
+                    }
+                }
+            });
+            mExpandAnimator.addListener(new AnimatorListenerAdapter() {
+                @Override
+                public void onAnimationEnd(Animator animation) {
+                    if(!mExpandRestarting) {
+                        finishExpandingRows();
+                    }
+                }
+            });
+        }
+
+        if(mExpandAnimator.isRunning()) {
+            for(ExpandingRow row : mExpandingRows.values()) {
+                row.startHeight = row.view.getLayoutParams().height;
+            }
+            mExpandRestarting = true;
+            mExpandAnimator.cancel();
+            mExpandRestarting = false;
+        }
+        mExpandAnimator.setDuration(mAnimationTime);
+        mExpandAnimator.start();
+
+    }
+
+    /**
+     * Gives all expanding rows back their original layout height and puts them back into the pool.
+     */
+    private void finishExpandingRows() {
+        for(ExpandingRow row : mExpandingRows.values()) {
+            setRowHeight(row.view, row.originalLayoutHeight);
+            ViewCompat.setHasTransientState(row.view, false);
+            row.view = null;
+            mExpandingRowPool.add(row);
+        }
+        mExpandingRows.clear();
+    }
+
+    /**
+     * Stops waiting for restored rows to be laid out and immediately gives all expanding rows
+     * their original layout height.
+     */
+    private void cancelRowExpansion() {
+        if(mRestoreScheduled) {
+            mRestoreScheduled = false;
+            getViewTreeObserver().removeOnPreDrawListener(mExpandRestoredRowsListener);
+        }
+        mRestoredCount = 0;
+        if(mExpandAnimator != null && mExpandAnimator.isRunning()) {
+            mExpandAnimator.end();
+        }
+    }
+
+    private static void setRowHeight(View view, int height) {
+        ViewGroup.LayoutParams lp = view.getLayoutParams();
+        lp.height = height;
+        view.setLayoutParams(lp);
+    }
+
+    /**
+     * Commits all pending dismisses, or remembers to do so as soon as the list stops flinging.
+     *
+     * @param showUndoPopup Whether the undo popup should be shown for the stored undos.
      */
-    public EnhancedListView setSwipeDirection(SwipeDirection direction) {
-        mSwipeDirection = direction;
-        return this;
+    private void requestCommit(boolean showUndoPopup) {
+        if(mScrollState == OnScrollListener.SCROLL_STATE_FLING) {
+            mCommitDeferred = true;
+            mDeferredShowUndoPopup |= showUndoPopup;
+        } else {
+            processPendingDismisses(showUndoPopup);
+        }
     }
 
     /**
-     * Sets the id of the view, that should be moved, when the user swipes an item.
-     * Only the view with the specified id will move, while all other views in the list item, will
-     * stay where they are. This might be usefull to have a background behind the view that is swiped
-     * out, to stay where it is (and maybe explain that the item is going to be deleted).
-     * If you never call this method (or call it with 0), the whole view will be swiped. Also if there
-     * is no view in a list item, with the given id, the whole view will be swiped.
-     * <p>
-     * <b>Note:</b> This method requires the <i>Swipe to Dismiss</i> feature enabled. Use
-     * {@link #enableSwipeToDismiss()} to enable the feature.
+     * Keeps an item, that has been slided out while the list is flinging, until the list stops
+     * flinging, instead of collapsing it. On API level 16 and above the list item view won't be
+     * recycled for other items meanwhile.
      *
-     * @param swipingLayoutId The id (from R.id) of the view, that should be swiped.
-     * @return This {@link de.timroes.android.listview.EnhancedListView}
+     * @param dismiss The pending dismiss of the item.
      */
-    public EnhancedListView setSwipingLayout(int swipingLayoutId) {
-        mSwipingLayout = swipingLayoutId;
-        return this;
+    private void deferCollapse(PendingDismissData dismiss) {
+        ViewCompat.setHasTransientState(dismiss.childView, true);
+        mDeferredCollapses.add(dismiss);
     }
 
     /**
-     * Discard all stored undos and hide the undo popup dialog.
-     * This method must be called in {@link android.app.Activity#onStop()}. Otherwise
-     * {@link EnhancedListView.Undoable#discard()} might not be called for several items, what might
-     * break your data consistency.
+     * Starts all collapses and the commit, that have been deferred while the list was flinging.
      */
-    public void discardUndo() {
-        for(Undoable undoable : mUndoActions) {
-            undoable.discard();
+    private void runDeferredWork() {
+
+        if(!mDeferredCollapses.isEmpty()) {
+            for(PendingDismissData dismiss : mDeferredCollapses) {
+                ViewCompat.setHasTransientState(dismiss.childView, false);
+                if(indexOfChild(dismiss.childView) >= 0) {
+                    performDismiss(dismiss);
+                } else {
+                    // The item has been scrolled out of the list, no need to collapse it
+                    mAnimatedViews.remove(dismiss.view);
+                    ViewHelper.setAlpha(dismiss.view, 1f);
+                    ViewHelper.setTranslationX(dismiss.view, 0);
+                    dismiss.view = dismiss.childView = null;
+                    mPendingDismisses.add(dismiss);
+                }
+            }
+            mDeferredCollapses.clear();
+            if(mAnimatedViews.isEmpty()) {
+                mCommitDeferred = true;
+                mDeferredShowUndoPopup = true;
+            }
         }
-        mUndoActions.clear();
-        if(mUndoPopup.isShowing()) {
-            mUndoPopup.dismiss();
+
+        if(mCommitDeferred && mAnimatedViews.isEmpty()) {
+            processPendingDismisses(mDeferredShowUndoPopup);
         }
+        // A snapshot might have been held back by the fling
+        applySnapshotIfIdle();
+
     }
 
     /**
-     * Delete the list item at the specified position. This will animate the item sliding out of the
-     * list and then collapsing until it vanished (same as if the user slides out an item).
-     * <p>
-     * NOTE: If you are using list headers, be aware, that the position argument must take care of
-     * them. Meaning 0 references the first list header. So if you want to delete the first list
-     * item, you have to pass the number of list headers as {@code position}. Most of the times
-     * that shouldn't be a problem, since you most probably will evaluate the position which should
-     * be deleted in a way, that respects the list headers.
+     * Calls the dismiss callback for all pending dismisses, stores the returned undos and
+     * resets all collapsed list item views. If calling the dismiss callbacks takes longer than the
+     * budget set via {@link #setCommitFrameBudget(int)}, the remaining callbacks are called in the
+     * next frames. A commit, that is still running, will be finished first.
      *
-     * @param position The position of the item in the list.
-     * @throws java.lang.IndexOutOfBoundsException when trying to delete an item outside of the list range.
-     * @throws java.lang.IllegalStateException when this method is called before an {@link EnhancedListView.OnDismissCallback}
-     *      is set via {@link #setDismissCallback(de.timroes.android.listview.EnhancedListView.OnDismissCallback)}.
-     * */
-    public void delete(int position) {
-        if(mDismissCallback == null) {
-            throw new IllegalStateException("You must set an OnDismissCallback, before deleting items.");
-        }
-        if(position < 0 || position >= getCount()) {
-            throw new IndexOutOfBoundsException(String.format("Tried to delete item %d. #items in list: %d", position, getCount()));
-        }
-        View childView = getChildAt(position - getFirstVisiblePosition());
-        View view = null;
-        if(mSwipingLayout > 0) {
-            view = childView.findViewById(mSwipingLayout);
-        }
-        if(view == null) {
-            view = childView;
+     * @param showUndoPopup Whether the undo popup should be shown for the stored undos.
+     */
+    private void processPendingDismisses(boolean showUndoPopup) {
+
+        if(mCommitting) {
+            finishCommit();
         }
-        slideOutView(view, childView, position, true);
+        // The swiped item view will be bound to another item, when the list lays out again
+        cancelSwipe();
+        mCommitDeferred = false;
+        mDeferredShowUndoPopup = false;
+
+        mEventLog.log(PipelineEventLog.COMMIT_START, mPendingDismisses.size());
+
+        // Dismiss from the bottom up, so the positions of the remaining items stay valid
+        Collections.sort(mPendingDismisses);
+
+        List<PendingDismissData> batch = mPendingDismisses;
+        mPendingDismisses = mCommitBatch;
+        mCommitBatch = batch;
+        mCommitIndex = 0;
+        mCommitShowUndoPopup = showUndoPopup;
+        mCommitUndoAdded = false;
+        mCommitting = true;
+
+        continueCommit(mCommitFrameBudget * 1000000L);
     }
 
     /**
-     * Slide out a view to the right or left of the list. After the animation has finished, the
-     * view will be dismissed by calling {@link #performDismiss(android.view.View, android.view.View, int)}.
+     * Calls the dismiss callbacks of the running commit until the time budget is used up.
      *
-     * @param view The view, that should be slided out.
-     * @param childView The whole view of the list item.
-     * @param position The item position of the item.
-     * @param toRightSide Whether it should slide out to the right side.
+     * @param budget The time budget in nanoseconds or {@code 0} to finish the commit.
      */
-    private void slideOutView(final View view, final View childView, final int position, boolean toRightSide) {
+    private void continueCommit(long budget) {
+
+        PipelineEventLog.beginSection("ELV:processPendingDismisses");
+
+        long start = System.nanoTime();
+        int size = mCommitBatch.size();
+        while(mCommitIndex < size) {
+            PendingDismissData dismiss = mCommitBatch.get(mCommitIndex++);
+            mEventLog.log(PipelineEventLog.DISMISS, dismiss.position);
+            PipelineEventLog.beginSection("ELV:onDismiss");
+            // Take the id before the item is removed, so its undo can be found by submitRestore(long)
+            long id = mDismissRecordCallback != null || mObservedAdapter.hasStableIds()
+                    ? mObservedAdapter.getItemId(dismiss.position) : INVALID_ROW_ID;
+            Undoable undoable;
+            if(mDismissRecordCallback != null) {
+                mDismissRecordCallback.onDismiss(this, dismiss.position, id);
+                undoable = obtainRecord(dismiss.position, id);
+            } else {
+                undoable = mDismissCallback.onDismiss(EnhancedListView.this, dismiss.position);
+            }
+            PipelineEventLog.endSection();
+            if(dismiss.inline || undoable == null) {
+                // The item can't come back, so its row won't expand again
+                onItemDiscarded(id);
+            }
+            if(dismiss.inline) {
+                // The user already had the chance to undo this in the list
+                mUndoIndex.add(dismiss.position, id, null);
+                if(undoable != null) {
+                    mEventLog.log(PipelineEventLog.DISCARD, dismiss.position);
+                    PipelineEventLog.beginSection("ELV:discard");
+                    undoable.discard();
+                    PipelineEventLog.endSection();
+                }
+            } else {
+                // Every dismiss moves the pending undos below it, even if it can't be undone itself
+                mCommitUndos.add(mUndoIndex.add(dismiss.position, id, undoable));
+                mCommitUndoAdded = true;
+            }
 
-        // Only start new animation, if this view isn't already animated (too fast swiping bug)
-        synchronized(mAnimationLock) {
-            if(mAnimatedViews.contains(view)) {
+            if(budget > 0 && mCommitIndex < size && System.nanoTime() - start >= budget) {
+                // Continue in the next frame, the list won't layout until the commit is finished
+                ViewCompat.postOnAnimation(this, mContinueCommitRunnable);
+                PipelineEventLog.endSection();
                 return;
             }
-            ++mDismissAnimationRefCount;
-            mAnimatedViews.add(view);
         }
 
-        ViewPropertyAnimator.animate(view)
-                .translationX(toRightSide ? mViewWidth : -mViewWidth)
-                .alpha(0)
-                .setDuration(mAnimationTime)
-                .setListener(new AnimatorListenerAdapter() {
-                    @Override
-                    public void onAnimationEnd(Animator animation) {
-                        performDismiss(view, childView, position);
-                    }
-                });
-    }
-
-    @Override
-    public boolean onTouchEvent(MotionEvent ev) {
-
-        if (!mSwipeEnabled) {
-            return super.onTouchEvent(ev);
+        // Hand all undos over at once, so the manager discards replaced undos only once
+        if(mCommitUndoAdded) {
+            mUndoManager.addUndoables(this, mCommitUndos);
+            mCommitUndos.clear();
         }
 
-        // Send a delayed message to hide popup
-        if(mTouchBeforeAutoHide && mUndoPopup.isShowing()) {
-            mHideUndoHandler.sendMessageDelayed(mHideUndoHandler.obtainMessage(mValidDelayedMsgId), mUndoHideDelay);
+        if(mCommitShowUndoPopup && mCommitUndoAdded) {
+            mUndoManager.showUndoPopup(this);
         }
 
-        // Store width of this list for usage of swipe distance detection
-        if (mViewWidth < 2) {
-            mViewWidth = getWidth();
+        for (PendingDismissData pendingDismiss : mCommitBatch) {
+            restoreDismissedView(pendingDismiss);
         }
 
-        switch (ev.getActionMasked()) {
-            case MotionEvent.ACTION_DOWN: {
-                if (mSwipePaused) {
-                    return super.onTouchEvent(ev);
-                }
+        // All items below a dismissed item moved up, so correct the positions of the undo rows
+        if(!mInlineUndos.isEmpty()) {
+            int[] dismissed = new int[mCommitBatch.size()];
+            for(int i = 0; i < dismissed.length; i++) {
+                dismissed[i] = mCommitBatch.get(i).listPosition;
+            }
+            Arrays.sort(dismissed);
+            for(PendingDismissData inlineUndo : mInlineUndos) {
+                // Number of dismissed items above the undo row
+                int shift = Arrays.binarySearch(dismissed, inlineUndo.listPosition);
+                shift = shift < 0 ? -shift - 1 : shift;
+                inlineUndo.listPosition -= shift;
+                inlineUndo.position -= shift;
+            }
+        }
 
-                // TODO: ensure this is a finger, and set a flag
+        for(PendingDismissData pendingDismiss : mCommitBatch) {
+            recycleDismiss(pendingDismiss);
+        }
+        mCommitBatch.clear();
+        mCommitIndex = 0;
+        mCollapsingInlineRows.clear();
+        mDismissedPositions.clear();
+        mCommitting = false;
+        cancelPrefetch();
+        requestLayout();
+
+        mEventLog.log(PipelineEventLog.COMMIT_END, 0);
+        PipelineEventLog.endSection();
+
+        // A snapshot might have been waiting for the commit
+        applySnapshotIfIdle();
+    }
 
-                // Find the child view that was touched (perform a hit test)
-                Rect rect = new Rect();
-                int childCount = getChildCount();
-                int[] listViewCoords = new int[2];
-                getLocationOnScreen(listViewCoords);
-                int x = (int) ev.getRawX() - listViewCoords[0];
-                int y = (int) ev.getRawY() - listViewCoords[1];
-                View child;
-                for (int i = getHeaderViewsCount(); i < childCount; i++) {
-                    child = getChildAt(i);
-                    if(child != null) {
-                        child.getHitRect(rect);
-                        if (rect.contains(x, y)) {
-                            // if a specific swiping layout has been giving, use this to swipe.
-                            if(mSwipingLayout > 0) {
-                                View swipingView = child.findViewById(mSwipingLayout);
-                                if(swipingView != null) {
-                                    mSwipeDownView = swipingView;
-                                    mSwipeDownChild = child;
-                                    break;
-                                }
-                            }
-                            // If no swiping layout has been found, swipe the whole child
-                            mSwipeDownView = mSwipeDownChild = child;
-                            break;
-                        }
-                    }
-                }
+    /**
+     * Calls all remaining dismiss callbacks of the running commit immediately.
+     */
+    private void finishCommit() {
+        removeCallbacks(mContinueCommitRunnable);
+        continueCommit(0);
+    }
 
-                if (mSwipeDownView != null) {
-                    // test if the item should be swiped
-                    int position = getPositionForView(mSwipeDownView) - getHeaderViewsCount();
-                    if ((mShouldSwipeCallback == null) ||
-                        mShouldSwipeCallback.onShouldSwipe(this, position)) {
-                    mDownX = ev.getRawX();
-                        mDownPosition = position;
+    /**
+     * Replaces a list item, that has been slided out, by an inline undo row. This is used instead of
+     * {@link #performDismiss(PendingDismissData)} for {@link UndoStyle#INLINE}.
+     *
+     * @param dismiss The pending dismiss of the item.
+     */
+    private void showInlineUndo(PendingDismissData dismiss) {
 
-                    mVelocityTracker = VelocityTracker.obtain();
-                    mVelocityTracker.addMovement(ev);
-                    } else {
-                        // set back to null to revert swiping
-                        mSwipeDownView = mSwipeDownChild = null;
-                    }
-                }
-                super.onTouchEvent(ev);
-                return true;
-            }
+        mAnimatedViews.remove(dismiss.view);
+        boolean noAnimationLeft = mAnimatedViews.isEmpty();
 
-            case MotionEvent.ACTION_UP: {
-                if (mVelocityTracker == null) {
-                    break;
-                }
+        // The undo row is drawn instead of the item, so the item can be reset immediately.
+        // The views might be recycled for other items from now on, so don't keep them.
+        ViewHelper.setAlpha(dismiss.view, 1f);
+        ViewHelper.setTranslationX(dismiss.view, 0);
+        dismiss.view = dismiss.childView = null;
 
-                float deltaX = ev.getRawX() - mDownX;
-                mVelocityTracker.addMovement(ev);
-                mVelocityTracker.computeCurrentVelocity(1000);
-                float velocityX = Math.abs(mVelocityTracker.getXVelocity());
-                float velocityY = Math.abs(mVelocityTracker.getYVelocity());
-                boolean dismiss = false;
-                boolean dismissRight = false;
-                if (Math.abs(deltaX) > mViewWidth / 2 && mSwiping) {
-                    dismiss = true;
-                    dismissRight = deltaX > 0;
-                } else if (mMinFlingVelocity <= velocityX && velocityX <= mMaxFlingVelocity
-                        && velocityY < velocityX && mSwiping && isSwipeDirectionValid(mVelocityTracker.getXVelocity())
-                        && deltaX >= mViewWidth * 0.2f) {
-                    dismiss = true;
-                    dismissRight = mVelocityTracker.getXVelocity() > 0;
-                }
-                if (dismiss) {
-                    // dismiss
-                    slideOutView(mSwipeDownView, mSwipeDownChild, mDownPosition, dismissRight);
-                } else if(mSwiping) {
-                    // Swipe back to regular position
-                    ViewPropertyAnimator.animate(mSwipeDownView)
-                            .translationX(0)
-                            .alpha(1)
-                            .setDuration(mAnimationTime)
-                            .setListener(null);
-                }
-                mVelocityTracker = null;
-                mDownX = 0;
-                mSwipeDownView = null;
-                mSwipeDownChild = null;
-                mDownPosition = AbsListView.INVALID_POSITION;
-                mSwiping = false;
-                break;
-            }
+        mInlineUndos.add(dismiss);
+        invalidate();
 
-            case MotionEvent.ACTION_MOVE: {
+        if(!mTouchBeforeAutoHide) {
+            scheduleInlineCommit();
+        }
 
-                if (mVelocityTracker == null || mSwipePaused) {
-                    break;
-                }
+        if(noAnimationLeft && !mPendingDismisses.isEmpty()) {
+            requestCommit(true);
+        }
+        applySnapshotIfIdle();
 
-                mVelocityTracker.addMovement(ev);
-                float deltaX = ev.getRawX() - mDownX;
-                // Only start swipe in correct direction
-                if(isSwipeDirectionValid(deltaX)) {
-                    ViewParent parent = getParent();
-                    if(parent != null) {
-                        // If we swipe don't allow parent to intercept touch (e.g. like NavigationDrawer does)
-                        // otherwise swipe would not be working.
-                        parent.requestDisallowInterceptTouchEvent(true);
-                    }
-                    if (Math.abs(deltaX) > mSlop) {
-                        mSwiping = true;
-                        requestDisallowInterceptTouchEvent(true);
+    }
 
-                        // Cancel ListView's touch (un-highlighting the item)
-                        MotionEvent cancelEvent = MotionEvent.obtain(ev);
-                        cancelEvent.setAction(MotionEvent.ACTION_CANCEL
-                                | (ev.getActionIndex()
-                                << MotionEvent.ACTION_POINTER_INDEX_SHIFT));
-                        super.onTouchEvent(cancelEvent);
-                    }
-                } else {
-                    // If we swiped into wrong direction, act like this was the new
-                    // touch down point
-                    mDownX = ev.getRawX();
-                    deltaX = 0;
-                }
+    /**
+     * Restores the item of an inline undo row.
+     *
+     * @param inlineUndo The pending dismiss of the item to restore.
+     */
+    private void undoInline(PendingDismissData inlineUndo) {
+        mEventLog.log(PipelineEventLog.INLINE_UNDO, inlineUndo.position);
+        cancelDismiss(inlineUndo.position);
+        mInlineUndos.remove(inlineUndo);
+        mDismissedPositions.clear(inlineUndo.listPosition);
+        recycleDismiss(inlineUndo);
+        if(mInlineUndos.isEmpty() && mInlineCommitScheduled) {
+            removeCallbacks(mCommitInlineUndosRunnable);
+            mInlineCommitScheduled = false;
+        }
+        invalidate();
+    }
 
-                if (mSwiping) {
-                    ViewHelper.setTranslationX(mSwipeDownView, deltaX);
-                    ViewHelper.setAlpha(mSwipeDownView, Math.max(0f, Math.min(1f,
-                            1f - 2f * Math.abs(deltaX) / mViewWidth)));
-                    return true;
-                }
-                break;
-            }
+    /**
+     * Starts the countdown after which all inline undo rows will be dismissed, if it isn't
+     * already running.
+     */
+    private void scheduleInlineCommit() {
+        if(!mInlineCommitScheduled) {
+            mInlineCommitScheduled = true;
+            postDelayed(mCommitInlineUndosRunnable, mUndoHideDelay);
         }
-        return super.onTouchEvent(ev);
     }
 
     /**
-     * Animate the dismissed list item to zero-height and fire the dismiss callback when
-     * all dismissed list item animations have completed.
+     * Dismisses all items, that are currently shown as inline undo rows.
      *
-     * @param dismissView The view that has been slided out.
-     * @param listItemView The list item view. This is the whole view of the list item, and not just
-     *                     the part, that the user swiped.
-     * @param dismissPosition The position of the view inside the list.
+     * @param animate Whether the undo rows should collapse or be dismissed immediately.
      */
-    private void performDismiss(final View dismissView, final View listItemView, final int dismissPosition) {
-
-        final ViewGroup.LayoutParams lp = listItemView.getLayoutParams();
-        final int originalLayoutHeight = lp.height;
+    void commitInlineUndos(boolean animate) {
 
-        int originalHeight = listItemView.getHeight();
-        ValueAnimator animator = ValueAnimator.ofInt(originalHeight, 1).setDuration(mAnimationTime);
+        if(mCommitting) {
+            finishCommit();
+        }
 
-        animator.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationEnd(Animator animation) {
-
-                // Make sure no other animation is running. Remove animation from running list, that just finished
-                boolean noAnimationLeft;
-                synchronized(mAnimationLock) {
-                    --mDismissAnimationRefCount;
-                    mAnimatedViews.remove(dismissView);
-                    noAnimationLeft = mDismissAnimationRefCount == 0;
-                }
+        if(mInlineCommitScheduled) {
+            removeCallbacks(mCommitInlineUndosRunnable);
+            mInlineCommitScheduled = false;
+        }
 
-                if (noAnimationLeft) {
-                    // No active animations, process all pending dismisses.
+        if(mInlineUndos.isEmpty()) {
+            return;
+        }
 
-                    for(PendingDismissData dismiss : mPendingDismisses) {
-                        if(mUndoStyle == UndoStyle.SINGLE_POPUP) {
-                            for(Undoable undoable : mUndoActions) {
-                                undoable.discard();
-                            }
-                            mUndoActions.clear();
-                        }
-                        Undoable undoable = mDismissCallback.onDismiss(EnhancedListView.this, dismiss.position);
-                        if(undoable != null) {
-                            mUndoActions.add(undoable);
-                        }
-                        mValidDelayedMsgId++;
-                    }
+        for(PendingDismissData inlineUndo : mInlineUndos) {
+            View childView = animate
+                    ? getChildAt(inlineUndo.listPosition - getFirstVisiblePosition())
+                    : null;
+            View view = childView != null ? getSwipingView(childView) : null;
+            if(view != null && !mAnimatedViews.containsKey(view)) {
+                inlineUndo.childView = childView;
+                inlineUndo.view = view;
+                mAnimatedViews.put(view, inlineUndo);
+                mCollapsingInlineRows.put(childView, inlineUndo);
+                performDismiss(inlineUndo);
+            } else {
+                mPendingDismisses.add(inlineUndo);
+            }
+        }
+        mInlineUndos.clear();
+        mInlineUndoTouched = null;
 
-                    if(!mUndoActions.isEmpty()) {
-                        changePopupText();
-                        changeButtonLabel();
-
-                        // Show undo popup
-                        float yLocationOffset = getResources().getDimension(R.dimen.elv_undo_bottom_offset);
-                        mUndoPopup.setWidth((int)Math.min(mScreenDensity * 400, getWidth() * 0.9f));
-                        mUndoPopup.showAtLocation(EnhancedListView.this,
-                                Gravity.CENTER_HORIZONTAL | Gravity.BOTTOM,
-                                0, (int) yLocationOffset);
-
-                        // Queue the dismiss only if required
-                        if(!mTouchBeforeAutoHide) {
-                            // Send a delayed message to hide popup
-                            mHideUndoHandler.sendMessageDelayed(mHideUndoHandler.obtainMessage(mValidDelayedMsgId),
-                                    mUndoHideDelay);
-                        }
-                    }
+        if(mAnimatedViews.isEmpty()) {
+            if(animate) {
+                requestCommit(true);
+            } else {
+                processPendingDismisses(false);
+            }
+        }
 
-                    ViewGroup.LayoutParams lp;
-                    for (PendingDismissData pendingDismiss : mPendingDismisses) {
-                        ViewHelper.setAlpha(pendingDismiss.view, 1f);
-                        ViewHelper.setTranslationX(pendingDismiss.view, 0);
-                        lp = pendingDismiss.childView.getLayoutParams();
-                        lp.height = originalLayoutHeight;
-                        pendingDismiss.childView.setLayoutParams(lp);
-                    }
+    }
 
-                    mPendingDismisses.clear();
-                }
+    /**
+     * Returns the inline undo row at the given position.
+     *
+     * @param listPosition The position inside the list (including headers).
+     * @return The pending dismiss of the undo row or {@code null} if there is no undo row
+     *      at that position.
+     */
+    private PendingDismissData findInlineUndo(int listPosition) {
+        for(PendingDismissData inlineUndo : mInlineUndos) {
+            if(inlineUndo.listPosition == listPosition) {
+                return inlineUndo;
             }
-        });
+        }
+        return null;
+    }
 
-        animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator valueAnimator) {
-                lp.height = (Integer) valueAnimator.getAnimatedValue();
-                listItemView.setLayoutParams(lp);
+    /**
+     * Returns the inline undo row at the location of a touch event.
+     *
+     * @param ev The touch event.
+     * @return The pending dismiss of the undo row or {@code null} if there is no undo row
+     *      at the touched location.
+     */
+    private PendingDismissData findInlineUndoAt(MotionEvent ev) {
+        Rect rect = mHitRect;
+        int childCount = getChildCount();
+        for(int i = 0; i < childCount; i++) {
+            View child = getChildAt(i);
+            child.getHitRect(rect);
+            if(rect.contains((int) ev.getX(), (int) ev.getY())) {
+                return findInlineUndo(getFirstVisiblePosition() + i);
             }
-        });
-
-        mPendingDismisses.add(new PendingDismissData(dismissPosition, dismissView, listItemView));
-        animator.start();
+        }
+        return null;
     }
 
     /**
-     * Changes the text of the undo popup. If more then one item can be undone, the number of deleted
-     * items will be shown. If only one deletion can be undone, the title of this deletion (or a default
-     * string in case the title is {@code null}) will be shown.
+     * Returns whether the given list item view is currently covered by an inline undo row.
+     *
+     * @param child The list item view.
+     * @return Whether an undo row should be drawn instead of the view.
      */
-    private void changePopupText() {
-        String msg = null;
-        if(mUndoActions.size() > 1) {
-            msg = getResources().getString(R.string.elv_n_items_deleted, mUndoActions.size());
-        } else if(mUndoActions.size() >= 1) {
-            // Set title from single undoable or when no multiple deletion string
-            // is given
-            msg = mUndoActions.get(mUndoActions.size() - 1).getTitle();
+    private boolean isInlineUndoRow(View child) {
+        if(findInlineUndo(getFirstVisiblePosition() + indexOfChild(child)) != null) {
+            return true;
+        }
+        // Undo rows, that are currently collapsing
+        return mCollapsingInlineRows.containsKey(child);
+    }
+
+    @Override
+    protected void layoutChildren() {
+        // Keep the collapsed items, until all dismiss callbacks of the running commit have been
+        // called. The commit requests a layout, when it's finished.
+        if(!mCommitting) {
+            super.layoutChildren();
+        }
+    }
 
-            if(msg == null) {
-                msg = getResources().getString(R.string.elv_item_deleted);
+    @Override
+    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        if(mUndoStyle == UndoStyle.INLINE || !mInlineUndos.isEmpty()) {
+            if(isInlineUndoRow(child)) {
+                drawInlineUndo(canvas, child);
+                return false;
             }
         }
-        mUndoPopupTextView.setText(msg);
+        return super.drawChild(canvas, child, drawingTime);
     }
 
     /**
-     * Changes the label of the undo button.
+     * Draws the inline undo row into the bounds of a list item. All undo rows are rendered by
+     * the same view, so no view has to be inflated or added per dismissed item.
+     *
+     * @param canvas The canvas of the list.
+     * @param child The list item view, the undo row should be drawn instead of.
      */
-    private void changeButtonLabel() {
-        String msg;
-        if(mUndoActions.size() > 1 && mUndoStyle == UndoStyle.COLLAPSED_POPUP) {
-            msg = getResources().getString(R.string.elv_undo_all);
-        } else {
-            msg = getResources().getString(R.string.elv_undo);
+    private void drawInlineUndo(Canvas canvas, View child) {
+
+        if(mInlineUndoView == null) {
+            LayoutInflater inflater = (LayoutInflater)getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+            mInlineUndoView = inflater.inflate(R.layout.elv_undo_inline, this, false);
+            ((TextView)mInlineUndoView.findViewById(R.id.text)).setText(R.string.elv_item_deleted);
         }
-        mUndoButton.setText(msg);
+
+        int width = child.getWidth();
+        int height = child.getHeight();
+        if(mInlineUndoView.getWidth() != width || mInlineUndoView.getHeight() != height) {
+            mInlineUndoView.measure(MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(height, MeasureSpec.EXACTLY));
+            mInlineUndoView.layout(0, 0, width, height);
+        }
+
+        int saveCount = canvas.save();
+        canvas.translate(child.getLeft(), child.getTop());
+        canvas.clipRect(0, 0, width, height);
+        mInlineUndoView.draw(canvas);
+        canvas.restoreToCount(saveCount);
+
     }
 
     private OnScrollListener makeScrollListener() {
@@ -914,23 +3059,42 @@ public class EnhancedListView extends ListView {
             @Override
             public void onScrollStateChanged(AbsListView view, int scrollState) {
                 mSwipePaused = scrollState == OnScrollListener.SCROLL_STATE_TOUCH_SCROLL;
+                mScrollState = scrollState;
+                if(scrollState != OnScrollListener.SCROLL_STATE_FLING) {
+                    runDeferredWork();
+                }
+
+                if(mOnScrollListener != null) {
+                    mOnScrollListener.onScrollStateChanged(view, scrollState);
+                }
+                // Iterate by index, so listeners can remove themselves
+                for(int i = mScrollListeners.size() - 1; i >= 0; i--) {
+                    mScrollListeners.get(i).onScrollStateChanged(view, scrollState);
+                }
             }
 
             @Override
             public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                updateShouldSwipe(firstVisibleItem - getHeaderViewsCount(), visibleItemCount);
+
+                if(mOnScrollListener != null) {
+                    mOnScrollListener.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+                }
+                for(int i = mScrollListeners.size() - 1; i >= 0; i--) {
+                    mScrollListeners.get(i).onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+                }
             }
         };
     }
 
     /**
-     * Checks whether the delta of a swipe indicates, that the swipe is in the
-     * correct direction, regarding the direction set via
+     * Returns the screen direction in which items can be swiped, regarding the direction set via
      * {@link #setSwipeDirection(de.timroes.android.listview.EnhancedListView.SwipeDirection)}
+     * and the layout direction of the list.
      *
-     * @param deltaX The delta of x coordinate of the swipe.
-     * @return Whether the delta of a swipe is in the right direction.
+     * @return {@code 0} for both directions, {@code -1} for left and {@code 1} for right.
      */
-    private boolean isSwipeDirectionValid(float deltaX) {
+    int getAllowedSwipeDirection() {
 
         int rtlSign = 1;
         // On API level 17 and above, check if we are in a Right-To-Left layout
@@ -940,15 +3104,14 @@ public class EnhancedListView extends ListView {
             }
         }
 
-        // Check if swipe has been done in the correct direction
         switch(mSwipeDirection) {
             default:
             case BOTH:
-                return true;
+                return 0;
             case START:
-                return rtlSign * deltaX < 0;
+                return -rtlSign;
             case END:
-                return rtlSign * deltaX > 0;
+                return rtlSign;
         }
 
     }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+/**
+ * Constants of the binary format written by the {@link GestureTraceRecorder} and read by the
+ * {@link GestureTraceReplayer}.
+ * <p>
+ * A trace starts with {@link #MAGIC} and {@link #VERSION}, followed by records. Each record
+ * starts with its type byte:
+ * <ul>
+ *     <li>{@link #RECORD_GEOMETRY}: width and height of the list, number of items in the adapter,
+ *     first visible position and number of headers (all {@code int}), touch slop ({@code float}),
+ *     minimum and maximum fling velocity ({@code int}) and allowed swipe direction ({@code byte}).
+ *     Written before every {@code ACTION_DOWN}.</li>
+ *     <li>{@link #RECORD_EVENT}: the masked action ({@code byte}), the number of samples
+ *     ({@code short}) and for every sample the time since the previous sample in milliseconds
+ *     ({@code int}) and the raw x and y coordinates ({@code float}). Historical samples come first,
+ *     the sample of the event itself last.</li>
+ *     <li>{@link #RECORD_VELOCITY}: the x and y velocity ({@code float}), the list computed when
+ *     the finger has been lifted.</li>
+ * </ul>
+ */
+final class GestureTraceFormat {
+
+    static final int MAGIC = 0x454c5654; // "ELVT"
+    static final short VERSION = 1;
+
+    static final byte RECORD_GEOMETRY = 1;
+    static final byte RECORD_EVENT = 2;
+    static final byte RECORD_VELOCITY = 3;
+
+    // Same values as the MotionEvent constants, so the replayer doesn't depend on Android
+    static final int ACTION_DOWN = 0;
+    static final int ACTION_UP = 1;
+    static final int ACTION_MOVE = 2;
+    static final int ACTION_CANCEL = 3;
+
+    private GestureTraceFormat() { }
+
+}
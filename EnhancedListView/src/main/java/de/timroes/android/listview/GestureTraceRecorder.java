@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import android.view.MotionEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the touch events reaching an {@link EnhancedListView} into a compact binary trace.
+ * Pass an instance to {@link EnhancedListView#setGestureTraceRecorder(GestureTraceRecorder)}
+ * to start recording. The trace can later be replayed on a plain JVM with the
+ * {@link GestureTraceReplayer}, e.g. to reproduce gestures recorded on a device in a unit test.
+ * <p>
+ * Writing the trace must never break the list, so the first {@link java.io.IOException} stops
+ * the recording. It can be read via {@link #getError()}.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class GestureTraceRecorder {
+
+    private final DataOutputStream mOut;
+    private long mLastSampleTime = -1;
+    private IOException mError;
+
+    /**
+     * Creates a new recorder and writes the header of the trace.
+     *
+     * @param out The stream to write the trace to.
+     */
+    public GestureTraceRecorder(OutputStream out) {
+        mOut = new DataOutputStream(new BufferedOutputStream(out));
+        try {
+            mOut.writeInt(GestureTraceFormat.MAGIC);
+            mOut.writeShort(GestureTraceFormat.VERSION);
+        } catch(IOException e) {
+            mError = e;
+        }
+    }
+
+    /**
+     * Writes all buffered records to the underlying stream.
+     */
+    public void flush() {
+        if(mError != null) {
+            return;
+        }
+        try {
+            mOut.flush();
+        } catch(IOException e) {
+            mError = e;
+        }
+    }
+
+    /**
+     * Flushes and closes the underlying stream.
+     */
+    public void close() {
+        flush();
+        try {
+            mOut.close();
+        } catch(IOException e) {
+            if(mError == null) {
+                mError = e;
+            }
+        }
+    }
+
+    /**
+     * Returns the error that stopped the recording.
+     *
+     * @return The error or {@code null} if the recording is still working.
+     */
+    public IOException getError() {
+        return mError;
+    }
+
+    /**
+     * Records a touch event of a list. Before every {@code ACTION_DOWN} the current geometry of
+     * the list is written.
+     *
+     * @param listView The list that received the event.
+     * @param ev The touch event.
+     */
+    void record(EnhancedListView listView, MotionEvent ev) {
+
+        if(mError != null) {
+            return;
+        }
+
+        try {
+            int action = ev.getActionMasked();
+            if(action == MotionEvent.ACTION_DOWN) {
+                SwipeDismissLogic logic = listView.getSwipeLogic();
+                mOut.writeByte(GestureTraceFormat.RECORD_GEOMETRY);
+                mOut.writeInt(listView.getWidth());
+                mOut.writeInt(listView.getHeight());
+                mOut.writeInt(listView.getCount());
+                mOut.writeInt(listView.getFirstVisiblePosition());
+                mOut.writeInt(listView.getHeaderViewsCount());
+                mOut.writeFloat(logic.getSlop());
+                mOut.writeInt(logic.getMinFlingVelocity());
+                mOut.writeInt(logic.getMaxFlingVelocity());
+                mOut.writeByte(listView.getAllowedSwipeDirection());
+            }
+
+            // Historical samples only have coordinates relative to the view
+            float offsetX = ev.getRawX() - ev.getX();
+            float offsetY = ev.getRawY() - ev.getY();
+            int historySize = ev.getHistorySize();
+
+            mOut.writeByte(GestureTraceFormat.RECORD_EVENT);
+            mOut.writeByte(action);
+            mOut.writeShort(historySize + 1);
+            for(int i = 0; i < historySize; i++) {
+                writeSample(ev.getHistoricalEventTime(i),
+                        ev.getHistoricalX(i) + offsetX, ev.getHistoricalY(i) + offsetY);
+            }
+            writeSample(ev.getEventTime(), ev.getRawX(), ev.getRawY());
+        } catch(IOException e) {
+            mError = e;
+        }
+
+    }
+
+    /**
+     * Records the velocity the list computed when the finger has been lifted.
+     *
+     * @param velocityX The horizontal velocity in pixels per second.
+     * @param velocityY The vertical velocity in pixels per second.
+     */
+    void recordVelocity(float velocityX, float velocityY) {
+
+        if(mError != null) {
+            return;
+        }
+
+        try {
+            mOut.writeByte(GestureTraceFormat.RECORD_VELOCITY);
+            mOut.writeFloat(velocityX);
+            mOut.writeFloat(velocityY);
+        } catch(IOException e) {
+            mError = e;
+        }
+
+    }
+
+    private void writeSample(long time, float x, float y) throws IOException {
+        mOut.writeInt(mLastSampleTime < 0 ? 0 : (int) (time - mLastSampleTime));
+        mOut.writeFloat(x);
+        mOut.writeFloat(y);
+        mLastSampleTime = time;
+    }
+
+}
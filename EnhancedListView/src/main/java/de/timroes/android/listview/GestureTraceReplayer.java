@@ -0,0 +1,347 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays a trace written by a {@link GestureTraceRecorder} against the {@link SwipeDismissLogic}
+ * of the library. This class doesn't use any Android class, so it can run on a plain JVM (e.g. in
+ * a unit test on a CI server). Time is only taken from the recorded event times, so every replay
+ * of the same trace gives exactly the same result.
+ * <p>
+ * Every gesture is replayed as if it started on an item, that can be swiped. Whether an item has
+ * been hit or whether the list was scrolling at that time isn't part of the trace.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class GestureTraceReplayer {
+
+    /**
+     * The result of a single replayed gesture.
+     */
+    public static class Gesture {
+
+        /**
+         * The virtual time of the {@code ACTION_DOWN} in milliseconds since the start of the trace.
+         */
+        public long downTime;
+
+        /**
+         * The virtual duration of the gesture in milliseconds.
+         */
+        public long duration;
+
+        /**
+         * The number of movement samples (including historical samples) of the gesture.
+         */
+        public int sampleCount;
+
+        /**
+         * The width of the list, when the gesture started.
+         */
+        public int viewWidth;
+
+        /**
+         * The number of items in the adapter, when the gesture started.
+         */
+        public int itemCount;
+
+        /**
+         * The distance the item has been swiped when the finger was lifted.
+         */
+        public float deltaX;
+
+        /**
+         * The horizontal velocity used to decide about the dismiss.
+         */
+        public float velocityX;
+
+        /**
+         * The vertical velocity used to decide about the dismiss.
+         */
+        public float velocityY;
+
+        /**
+         * Whether the velocity has been recorded on the device or estimated by the replayer.
+         */
+        public boolean recordedVelocity;
+
+        /**
+         * Whether the gesture has been detected as a swipe.
+         */
+        public boolean swiping;
+
+        /**
+         * The decision of the {@link SwipeDismissLogic}: {@link SwipeDismissLogic#DISMISS_NONE},
+         * {@link SwipeDismissLogic#DISMISS_LEFT} or {@link SwipeDismissLogic#DISMISS_RIGHT}.
+         */
+        public int dismiss;
+
+        @Override
+        public String toString() {
+            return "Gesture{downTime=" + downTime + ", duration=" + duration + ", samples=" + sampleCount
+                    + ", deltaX=" + deltaX + ", velocityX=" + velocityX + ", velocityY=" + velocityY
+                    + ", swiping=" + swiping + ", dismiss=" + dismiss + "}";
+        }
+
+    }
+
+    /**
+     * Estimates the velocity of the finger by a least squares fit over the samples of the last
+     * 100 milliseconds, similar to the {@code VelocityTracker} of Android.
+     */
+    private static class VelocityEstimator {
+
+        private static final int MAX_SAMPLES = 20;
+        private static final long HORIZON = 100;
+
+        private final long[] mTimes = new long[MAX_SAMPLES];
+        private final float[] mX = new float[MAX_SAMPLES];
+        private final float[] mY = new float[MAX_SAMPLES];
+        private int mIndex;
+        private int mCount;
+
+        void clear() {
+            mIndex = 0;
+            mCount = 0;
+        }
+
+        void add(long time, float x, float y) {
+            mIndex = (mIndex + 1) % MAX_SAMPLES;
+            mTimes[mIndex] = time;
+            mX[mIndex] = x;
+            mY[mIndex] = y;
+            mCount = Math.min(mCount + 1, MAX_SAMPLES);
+        }
+
+        /**
+         * Returns the velocity in pixels per second.
+         *
+         * @param y Whether to return the vertical instead of the horizontal velocity.
+         * @return The velocity in pixels per second.
+         */
+        float get(boolean y) {
+            float[] values = y ? mY : mX;
+            long newest = mTimes[mIndex];
+            double sumT = 0, sumV = 0, sumTT = 0, sumTV = 0;
+            int n = 0;
+            for(int i = 0; i < mCount; i++) {
+                int index = (mIndex - i + MAX_SAMPLES) % MAX_SAMPLES;
+                long age = newest - mTimes[index];
+                if(age > HORIZON) {
+                    break;
+                }
+                double t = -age;
+                sumT += t;
+                sumV += values[index];
+                sumTT += t * t;
+                sumTV += t * values[index];
+                n++;
+            }
+            double denominator = n * sumTT - sumT * sumT;
+            if(n < 2 || denominator == 0) {
+                return 0;
+            }
+            return (float) ((n * sumTV - sumT * sumV) / denominator * 1000);
+        }
+
+    }
+
+    private final DataInputStream mIn;
+    private boolean mUseRecordedVelocity = true;
+
+    private final SwipeDismissLogic mLogic = new SwipeDismissLogic();
+    private final VelocityEstimator mVelocity = new VelocityEstimator();
+    private long mClock;
+    private Gesture mGesture;
+    private float mLastX;
+    private float mLastY;
+
+    /**
+     * Creates a replayer reading a trace from the given stream.
+     *
+     * @param in The stream to read the trace from.
+     */
+    public GestureTraceReplayer(InputStream in) {
+        mIn = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    /**
+     * Sets whether the velocity recorded on the device should be used to decide about flings.
+     * If set to {@code false} (or if no velocity has been recorded) the velocity is estimated from
+     * the recorded samples. By default the recorded velocity is used.
+     *
+     * @param useRecordedVelocity Whether to use the recorded velocity.
+     * @return This {@link GestureTraceReplayer}
+     */
+    public GestureTraceReplayer setUseRecordedVelocity(boolean useRecordedVelocity) {
+        mUseRecordedVelocity = useRecordedVelocity;
+        return this;
+    }
+
+    /**
+     * Replays the whole trace.
+     *
+     * @return The results of all gestures in the trace, that have been completed.
+     * @throws IOException If reading the trace failed or the trace isn't valid.
+     */
+    public List<Gesture> replay() throws IOException {
+
+        if(mIn.readInt() != GestureTraceFormat.MAGIC) {
+            throw new IOException("Not a gesture trace.");
+        }
+        short version = mIn.readShort();
+        if(version != GestureTraceFormat.VERSION) {
+            throw new IOException("Unsupported gesture trace version " + version + ".");
+        }
+
+        List<Gesture> gestures = new ArrayList<Gesture>();
+        boolean upPending = false;
+
+        while(true) {
+            int type;
+            try {
+                type = mIn.readByte();
+            } catch(EOFException e) {
+                break;
+            }
+
+            if(upPending) {
+                upPending = false;
+                if(type == GestureTraceFormat.RECORD_VELOCITY) {
+                    float velocityX = mIn.readFloat();
+                    float velocityY = mIn.readFloat();
+                    if(mUseRecordedVelocity) {
+                        finishGesture(gestures, velocityX, velocityY, true);
+                    } else {
+                        finishGesture(gestures, mVelocity.get(false), mVelocity.get(true), false);
+                    }
+                    continue;
+                }
+                finishGesture(gestures, mVelocity.get(false), mVelocity.get(true), false);
+            }
+
+            switch(type) {
+                case GestureTraceFormat.RECORD_GEOMETRY:
+                    readGeometry();
+                    break;
+                case GestureTraceFormat.RECORD_EVENT:
+                    upPending = readEvent();
+                    break;
+                case GestureTraceFormat.RECORD_VELOCITY:
+                    // Velocity without a preceding ACTION_UP, nothing to decide
+                    mIn.readFloat();
+                    mIn.readFloat();
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type + ".");
+            }
+        }
+
+        if(upPending) {
+            finishGesture(gestures, mVelocity.get(false), mVelocity.get(true), false);
+        }
+
+        return gestures;
+    }
+
+    private void readGeometry() throws IOException {
+        int width = mIn.readInt();
+        mIn.readInt(); // height
+        int itemCount = mIn.readInt();
+        mIn.readInt(); // first visible position
+        mIn.readInt(); // header count
+        float slop = mIn.readFloat();
+        int minFling = mIn.readInt();
+        int maxFling = mIn.readInt();
+        int allowedDirection = mIn.readByte();
+
+        mLogic.setConstants(slop, minFling, maxFling);
+        mLogic.setViewWidth(width);
+        mLogic.setAllowedDirection(allowedDirection);
+
+        mGesture = new Gesture();
+        mGesture.viewWidth = width;
+        mGesture.itemCount = itemCount;
+    }
+
+    /**
+     * Reads an event record and feeds it to the swipe logic.
+     *
+     * @return Whether the event was an {@code ACTION_UP}, so the gesture needs to be finished.
+     */
+    private boolean readEvent() throws IOException {
+
+        int action = mIn.readByte();
+        int samples = mIn.readShort();
+
+        for(int i = 0; i < samples; i++) {
+            mClock += mIn.readInt();
+            mLastX = mIn.readFloat();
+            mLastY = mIn.readFloat();
+
+            if(mGesture == null) {
+                continue;
+            }
+
+            switch(action) {
+                case GestureTraceFormat.ACTION_DOWN:
+                    mVelocity.clear();
+                    mVelocity.add(mClock, mLastX, mLastY);
+                    mLogic.down(mLastX);
+                    mGesture.downTime = mClock;
+                    break;
+                case GestureTraceFormat.ACTION_MOVE:
+                    // Historical samples only feed the velocity, like in the list
+                    mVelocity.add(mClock, mLastX, mLastY);
+                    mGesture.sampleCount++;
+                    break;
+                case GestureTraceFormat.ACTION_UP:
+                    mVelocity.add(mClock, mLastX, mLastY);
+                    break;
+            }
+        }
+
+        if(action == GestureTraceFormat.ACTION_MOVE && samples > 0 && mGesture != null) {
+            // The list tracks the swipe only by the newest coordinate of every move event
+            mLogic.move(mLastX);
+        }
+
+        return action == GestureTraceFormat.ACTION_UP && mGesture != null;
+    }
+
+    private void finishGesture(List<Gesture> gestures, float velocityX, float velocityY, boolean recorded) {
+        Gesture gesture = mGesture;
+        gesture.swiping = mLogic.isSwiping();
+        gesture.dismiss = mLogic.up(mLastX, velocityX, velocityY);
+        gesture.deltaX = mLogic.getDeltaX();
+        gesture.velocityX = velocityX;
+        gesture.velocityY = velocityY;
+        gesture.recordedVelocity = recorded;
+        gesture.duration = mClock - gesture.downTime;
+        gestures.add(gesture);
+        mLogic.reset();
+        mGesture = null;
+    }
+
+}
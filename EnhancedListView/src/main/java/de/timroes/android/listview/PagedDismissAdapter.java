@@ -0,0 +1,535 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An adapter for data sets, that are too large to be held in memory, e.g. a SQLite table with
+ * millions of rows. The items are loaded in pages of a fixed size in the background, as soon as
+ * the list asks for one of their rows, and only the most recently used pages are kept. Until its
+ * page has been loaded, a row is shown with a {@code null} item. Return the result of
+ * {@link #dismiss(int)} from your
+ * {@link de.timroes.android.listview.EnhancedListView.OnDismissCallback}:
+ * <pre>
+ * public Undoable onDismiss(EnhancedListView listView, int position) {
+ *     return adapter.dismiss(position);
+ * }
+ * </pre>
+ * Like in {@link de.timroes.android.listview.DismissableCursorAdapter} dismissed rows are only
+ * hidden, as long as they can be undone. As soon as their undos are discarded, all of them are
+ * deleted with a single call to {@link #deleteItems(long[])} in the background. Positions in the
+ * data set are never shifted: dismissed and deleted rows are only stored as sorted lists of
+ * positions, that are skipped, so neither dismissing nor scrolling requires loading more than
+ * the visible pages.
+ * <p>
+ * All methods except {@link #loadPage(int, int)} and {@link #deleteItems(long[])} must be called
+ * on the main thread.
+ *
+ * @param <T> The type of the items.
+ * @author Tim Roes <mail@timroes.de>
+ */
+public abstract class PagedDismissAdapter<T> extends BaseAdapter {
+
+    /**
+     * A row, that has been dismissed, but not yet deleted from the data set.
+     */
+    private class HiddenRow extends EnhancedListView.Undoable {
+
+        long id;
+        /**
+         * Whether the id is known. It's taken from the page of the row, which might not be in
+         * memory when the row gets dismissed.
+         */
+        boolean hasId;
+        int position;
+        boolean committing;
+
+        HiddenRow(int position) {
+            this.position = position;
+        }
+
+        @Override
+        public void undo() {
+            if(committing || !mHiddenRows.remove(this)) {
+                return;
+            }
+            if(position >= 0) {
+                mOverlay.show(position);
+            }
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public void discard() {
+            if(committing || !mHiddenRows.contains(this)) {
+                return;
+            }
+            committing = true;
+            mQueuedRows.add(this);
+            if(!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.post(mFlushRunnable);
+            }
+        }
+
+    }
+
+    private final int mPageSize;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<Integer, Object[]> mPages;
+    private int mCount;
+
+    /**
+     * The positions of all rows, that are dismissed or deleted.
+     */
+    private final DismissOverlay mOverlay = new DismissOverlay();
+    /**
+     * The positions of all rows, that have been deleted from the data set.
+     */
+    private final DismissOverlay mDeleted = new DismissOverlay();
+    /**
+     * The pages, that are loading or waiting to be loaded.
+     */
+    private final BitSet mLoadingPages = new BitSet();
+    /**
+     * Changes whenever loaded pages might not match the positions anymore.
+     */
+    private int mGeneration;
+
+    private final List<HiddenRow> mHiddenRows = new ArrayList<HiddenRow>();
+    private final List<HiddenRow> mQueuedRows = new ArrayList<HiddenRow>();
+    private boolean mFlushScheduled;
+    private boolean mCommitting;
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushScheduled = false;
+            flush();
+        }
+    };
+
+    /**
+     * Creates a new adapter.
+     *
+     * @param count The number of items in the data set.
+     * @param pageSize The number of items loaded at once.
+     * @param maxPages The maximum number of pages kept in memory. This should hold more items than
+     *                 fit on the screen, otherwise the visible pages would keep evicting each other.
+     */
+    public PagedDismissAdapter(int count, int pageSize, final int maxPages) {
+        if(pageSize <= 0 || maxPages <= 0) {
+            throw new IllegalArgumentException("pageSize and maxPages must be positive");
+        }
+        mCount = count;
+        mPageSize = pageSize;
+        mPages = new LinkedHashMap<Integer, Object[]>(maxPages + 1, 1f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Object[]> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * Loads a page of items from the data set. Called on a background thread by default.
+     * Deleted items are no longer part of the data set, so the offset refers to the current
+     * data set.
+     *
+     * @param offset The position of the first item in the data set.
+     * @param limit The number of items to load.
+     * @return The loaded items. If the list is shorter than the limit, the missing items stay unloaded.
+     * @throws Exception If the page couldn't be loaded.
+     */
+    protected abstract List<T> loadPage(int offset, int limit) throws Exception;
+
+    /**
+     * Deletes items from the data set. Called on a background thread by default.
+     *
+     * @param ids The stable ids of all items, whose undos have been discarded.
+     * @throws Exception If the items couldn't be deleted. They will be shown again.
+     */
+    protected abstract void deleteItems(long[] ids) throws Exception;
+
+    /**
+     * Returns the stable id of an item.
+     *
+     * @param item The item.
+     * @return The id of the item.
+     */
+    protected abstract long getStableId(T item);
+
+    /**
+     * Returns the view of a row, like {@link #getView(int, android.view.View, android.view.ViewGroup)}.
+     *
+     * @param item The item of the row or {@code null} if its page is still loading.
+     * @param convertView The old view to reuse, if possible.
+     * @param parent The parent, the view will be attached to.
+     * @return The view of the row.
+     */
+    protected abstract View getItemView(T item, View convertView, ViewGroup parent);
+
+    /**
+     * Runs the loading of a page. The default implementation runs it in an
+     * {@link android.os.AsyncTask}. Override this to use your own executor or to run it
+     * synchronously, e.g. in a test.
+     *
+     * @param load The load to run.
+     */
+    protected void executeLoad(Runnable load) {
+        execute(load);
+    }
+
+    /**
+     * Runs the commit of a batch of deletes. The default implementation runs it in an
+     * {@link android.os.AsyncTask}. Override this to run the commit synchronously, e.g. in a test.
+     *
+     * @param commit The commit to run.
+     */
+    protected void executeCommit(Runnable commit) {
+        execute(commit);
+    }
+
+    /**
+     * Called on the main thread, if loading a page failed. The page will be requested again, when
+     * the list asks for one of its rows. The default implementation does nothing.
+     *
+     * @param e The exception thrown by {@link #loadPage(int, int)}.
+     */
+    protected void onLoadFailed(Exception e) { }
+
+    /**
+     * Called on the main thread, if deleting a batch of items failed. The rows of the batch will
+     * be shown again. The default implementation does nothing.
+     *
+     * @param e The exception thrown by {@link #deleteItems(long[])}.
+     */
+    protected void onCommitFailed(Exception e) { }
+
+    private static void execute(final Runnable runnable) {
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                runnable.run();
+                return null;
+            }
+        }.execute();
+    }
+
+    /**
+     * Replaces the data set, e.g. after it has been changed by someone else. All loaded pages are
+     * dropped. Rows, that are pending to be deleted, can't be found in the new data set by their
+     * position, so they will be shown again, if it still contains them.
+     *
+     * @param count The number of items in the new data set.
+     */
+    public void setCount(int count) {
+        mCount = count;
+        mPages.clear();
+        mOverlay.clear();
+        mDeleted.clear();
+        mLoadingPages.clear();
+        mGeneration++;
+        for(int i = mHiddenRows.size() - 1; i >= 0; i--) {
+            HiddenRow row = mHiddenRows.get(i);
+            row.position = -1;
+            if(!row.hasId) {
+                // Its page can't be found anymore, so the row can't be deleted
+                mHiddenRows.remove(i);
+                mQueuedRows.remove(row);
+            }
+        }
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Hides the row at the given position and returns an undo for it. Discarding the undo
+     * deletes the item from the data set, undoing it shows the row again. The row doesn't need
+     * to be loaded: if its page isn't in memory (e.g. the row is still loading, its page has been
+     * evicted or it has been deleted via {@link EnhancedListView#delete(int)} while offscreen),
+     * the page is loaded to find the id of the item, before it gets deleted.
+     *
+     * @param position The position of the row in this adapter.
+     * @return The undo for the dismissed row.
+     */
+    public EnhancedListView.Undoable dismiss(int position) {
+        int underlying = mOverlay.toUnderlying(position);
+        HiddenRow row = new HiddenRow(underlying);
+        T item = peekItem(underlying);
+        if(item != null) {
+            row.id = getStableId(item);
+            row.hasId = true;
+        } else {
+            requestPage(underlying / mPageSize);
+        }
+        mHiddenRows.add(row);
+        mOverlay.hide(underlying);
+        notifyDataSetChanged();
+        return row;
+    }
+
+    /**
+     * Returns an item, if its page is in memory.
+     *
+     * @param underlying The position of the item including all hidden rows.
+     * @return The item or {@code null} if it hasn't been loaded.
+     */
+    @SuppressWarnings("unchecked")
+    private T peekItem(int underlying) {
+        Object[] page = mPages.get(underlying / mPageSize);
+        return page != null ? (T) page[underlying % mPageSize] : null;
+    }
+
+    /**
+     * Returns an item and loads its page, if it isn't in memory.
+     *
+     * @param underlying The position of the item including all hidden rows.
+     * @return The item or {@code null} if it hasn't been loaded yet.
+     */
+    private T getLoadedItem(int underlying) {
+        T item = peekItem(underlying);
+        if(item == null) {
+            requestPage(underlying / mPageSize);
+        }
+        return item;
+    }
+
+    private void requestPage(int page) {
+        if(mLoadingPages.get(page)) {
+            return;
+        }
+        mLoadingPages.set(page);
+        if(!mCommitting) {
+            // While deletes are running, the offsets in the data set aren't known
+            startLoading(page);
+        }
+    }
+
+    /**
+     * Loads a page in the background. Rows, that have been deleted, are no longer part of the
+     * data set, so they are left out of the offset and the limit.
+     */
+    private void startLoading(final int page) {
+
+        int start = page * mPageSize;
+        int end = Math.min(start + mPageSize, mCount);
+        int deletedBefore = mDeleted.countHiddenBefore(start);
+        final int offset = start - deletedBefore;
+        final int limit = end - start - (mDeleted.countHiddenBefore(end) - deletedBefore);
+        final int generation = mGeneration;
+
+        executeLoad(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final List<T> items = limit > 0 ? loadPage(offset, limit) : new ArrayList<T>();
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onPageLoaded(page, generation, items);
+                        }
+                    });
+                } catch(final Exception e) {
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mLoadingPages.clear(page);
+                            onLoadFailed(e);
+                        }
+                    });
+                }
+            }
+        });
+
+    }
+
+    private void onPageLoaded(int page, int generation, List<T> items) {
+
+        if(generation != mGeneration) {
+            // Items have been deleted meanwhile, so the page might have been loaded from a wrong offset
+            if(mLoadingPages.get(page) && !mCommitting) {
+                startLoading(page);
+            }
+            return;
+        }
+        mLoadingPages.clear(page);
+
+        // Spread the items over the positions of the page, that haven't been deleted
+        Object[] slots = new Object[mPageSize];
+        int start = page * mPageSize;
+        int next = 0;
+        for(int i = 0; i < mPageSize && next < items.size() && start + i < mCount; i++) {
+            if(!mDeleted.isHidden(start + i)) {
+                slots[i] = items.get(next++);
+            }
+        }
+        mPages.put(page, slots);
+
+        // Take the ids of rows, that have been dismissed before the page has been loaded
+        boolean resolved = false;
+        for(HiddenRow row : mHiddenRows) {
+            if(!row.hasId && row.position >= 0 && row.position / mPageSize == page) {
+                @SuppressWarnings("unchecked")
+                T item = (T) slots[row.position % mPageSize];
+                if(item != null) {
+                    row.id = getStableId(item);
+                    row.hasId = true;
+                    resolved = true;
+                }
+            }
+        }
+        if(resolved) {
+            flush();
+        }
+        notifyDataSetChanged();
+
+    }
+
+    /**
+     * Deletes all rows, whose undos have been discarded, from the data set. Rows, whose ids aren't
+     * known yet, stay queued until their pages have been loaded.
+     */
+    private void flush() {
+
+        if(mQueuedRows.isEmpty() || mCommitting) {
+            // A running commit flushes the rows queued meanwhile, when it has finished
+            return;
+        }
+
+        final List<HiddenRow> rows = new ArrayList<HiddenRow>(mQueuedRows.size());
+        for(int i = mQueuedRows.size() - 1; i >= 0; i--) {
+            HiddenRow row = mQueuedRows.get(i);
+            if(row.hasId) {
+                rows.add(row);
+                mQueuedRows.remove(i);
+            } else {
+                // Request the page again, in case loading it failed
+                requestPage(row.position / mPageSize);
+            }
+        }
+        if(rows.isEmpty()) {
+            return;
+        }
+        final long[] ids = new long[rows.size()];
+        for(int i = 0; i < ids.length; i++) {
+            ids[i] = rows.get(i).id;
+        }
+
+        // Loads running meanwhile might see the data set with or without the items
+        mCommitting = true;
+        mGeneration++;
+
+        executeCommit(new Runnable() {
+            @Override
+            public void run() {
+                Exception error = null;
+                try {
+                    deleteItems(ids);
+                } catch(Exception e) {
+                    error = e;
+                }
+                final Exception result = error;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onCommitted(rows, result);
+                    }
+                });
+            }
+        });
+
+    }
+
+    private void onCommitted(List<HiddenRow> rows, Exception error) {
+
+        mCommitting = false;
+        for(HiddenRow row : rows) {
+            if(!mHiddenRows.remove(row) || row.position < 0) {
+                continue;
+            }
+            if(error == null) {
+                // The row stays hidden, but is no longer part of the data set
+                mDeleted.hide(row.position);
+            } else {
+                mOverlay.show(row.position);
+            }
+        }
+
+        // Load the pages requested while the commit was running
+        for(int page = mLoadingPages.nextSetBit(0); page >= 0; page = mLoadingPages.nextSetBit(page + 1)) {
+            startLoading(page);
+        }
+
+        if(error != null) {
+            notifyDataSetChanged();
+            onCommitFailed(error);
+        }
+        flush();
+
+    }
+
+    @Override
+    public int getCount() {
+        return mOverlay.getVisibleCount(mCount);
+    }
+
+    /**
+     * Returns the item at a position, if its page has been loaded, or starts loading its page.
+     *
+     * @param position The position of the item in this adapter.
+     * @return The item or {@code null} if its page is still loading.
+     */
+    @Override
+    public T getItem(int position) {
+        return getLoadedItem(mOverlay.toUnderlying(position));
+    }
+
+    /**
+     * Returns the stable id of the row at a position. This is the position of the row in the data
+     * set, including all dismissed and deleted rows, which never shifts, so the id is known before
+     * the page of the row has been loaded. It's only valid until the data set gets replaced via
+     * {@link #setCount(int)}. Use {@link #getStableId(Object)} for the id of the item itself.
+     *
+     * @param position The position of the row in this adapter.
+     * @return The id of the row.
+     */
+    @Override
+    public long getItemId(int position) {
+        return mOverlay.toUnderlying(position);
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        return getItemView(getLoadedItem(mOverlay.toUnderlying(position)), convertView, parent);
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.PrintWriter;
+
+/**
+ * A fixed size ring buffer of the last events of the dismiss pipeline of an
+ * {@link EnhancedListView} (touch, slide out, collapse, dismiss callback, discard and undo).
+ * Recording an event doesn't allocate any objects, so the log can always be enabled.
+ * The timestamps use {@link System#nanoTime()}, the same clock as systrace, so the events can
+ * be lined up with the trace sections written via {@link #beginSection(String)}.
+ */
+final class PipelineEventLog {
+
+    static final int TOUCH_DOWN = 0;
+    static final int SWIPE_START = 1;
+    static final int SLIDE_OUT_START = 2;
+    static final int SLIDE_OUT_END = 3;
+    static final int COLLAPSE_END = 4;
+    static final int COMMIT_START = 5;
+    static final int DISMISS = 6;
+    static final int COMMIT_END = 7;
+    static final int DISCARD = 8;
+    static final int UNDO = 9;
+    static final int INLINE_UNDO = 10;
+
+    private static final String[] EVENT_NAMES = {
+            "TOUCH_DOWN", "SWIPE_START", "SLIDE_OUT_START", "SLIDE_OUT_END", "COLLAPSE_END",
+            "COMMIT_START", "DISMISS", "COMMIT_END", "DISCARD", "UNDO", "INLINE_UNDO"
+    };
+
+    private static final int CAPACITY = 128;
+
+    private final long[] mTimes = new long[CAPACITY];
+    private final int[] mEvents = new int[CAPACITY];
+    private final int[] mArgs = new int[CAPACITY];
+    private int mNext;
+    private int mCount;
+
+    /**
+     * Records an event, overwriting the oldest event if the buffer is full.
+     *
+     * @param event The event type.
+     * @param arg An argument of the event, e.g. the position of the item.
+     */
+    void log(int event, int arg) {
+        mTimes[mNext] = System.nanoTime();
+        mEvents[mNext] = event;
+        mArgs[mNext] = arg;
+        mNext = (mNext + 1) % CAPACITY;
+        if(mCount < CAPACITY) {
+            mCount++;
+        }
+    }
+
+    /**
+     * Writes all recorded events, oldest first, to the given writer.
+     *
+     * @param writer The writer to dump the events to.
+     */
+    void dump(PrintWriter writer) {
+        int first = (mNext - mCount + CAPACITY) % CAPACITY;
+        for(int i = 0; i < mCount; i++) {
+            int index = (first + i) % CAPACITY;
+            writer.print(mTimes[index] / 1000000.0);
+            writer.print("ms ");
+            writer.print(EVENT_NAMES[mEvents[index]]);
+            writer.print(' ');
+            writer.println(mArgs[index]);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Begins a systrace section on API level 18 and above.
+     *
+     * @param name The name of the section.
+     */
+    static void beginSection(String name) {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    /**
+     * Ends the last systrace section begun via {@link #beginSection(String)}.
+     */
+    static void endSection() {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import android.database.DataSetObserver;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.ListAdapter;
+import android.widget.SectionIndexer;
+import android.widget.WrapperListAdapter;
+
+/**
+ * Wraps the adapter of an {@link de.timroes.android.listview.EnhancedListView} and holds rows,
+ * that have been created in advance. The list can't put views into the scrap heap of its
+ * recycler, so the rows are kept here until the list asks for their positions. Only one row per
+ * view type is held, since the list puts its own convert view back into its scrap heap for every
+ * handed out row. Whenever the wrapped adapter notifies about changed data, the prefetched rows
+ * are dropped and kept as convert views for the next rows of their view types.
+ */
+class PrefetchingAdapter implements WrapperListAdapter {
+
+    /**
+     * Also passes the filter of the wrapped adapter through, so the text filter of the list
+     * keeps working.
+     */
+    private static class Filtering extends PrefetchingAdapter implements Filterable {
+
+        Filtering(ListAdapter adapter) {
+            super(adapter);
+        }
+
+        @Override
+        public Filter getFilter() {
+            return ((Filterable) getWrappedAdapter()).getFilter();
+        }
+
+    }
+
+    /**
+     * Also passes the sections of the wrapped adapter through, so the fast scroller of the list
+     * keeps showing them.
+     */
+    private static class Sectioned extends PrefetchingAdapter implements SectionIndexer {
+
+        Sectioned(ListAdapter adapter) {
+            super(adapter);
+        }
+
+        @Override
+        public Object[] getSections() {
+            return ((SectionIndexer) getWrappedAdapter()).getSections();
+        }
+
+        @Override
+        public int getPositionForSection(int section) {
+            return ((SectionIndexer) getWrappedAdapter()).getPositionForSection(section);
+        }
+
+        @Override
+        public int getSectionForPosition(int position) {
+            return ((SectionIndexer) getWrappedAdapter()).getSectionForPosition(position);
+        }
+
+    }
+
+    /**
+     * Passes both the filter and the sections of the wrapped adapter through.
+     */
+    private static class FilteringSectioned extends Sectioned implements Filterable {
+
+        FilteringSectioned(ListAdapter adapter) {
+            super(adapter);
+        }
+
+        @Override
+        public Filter getFilter() {
+            return ((Filterable) getWrappedAdapter()).getFilter();
+        }
+
+    }
+
+    private final ListAdapter mAdapter;
+    // The prefetched rows, their positions and the unused convert views by view type
+    private final SparseArray<View> mPrefetched = new SparseArray<View>();
+    private final SparseIntArray mPrefetchedPositions = new SparseIntArray();
+    private final SparseArray<View> mConvertViews = new SparseArray<View>();
+    private final DataSetObserver mObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            clear();
+        }
+
+        @Override
+        public void onInvalidated() {
+            clear();
+        }
+    };
+
+    /**
+     * Wraps the given adapter.
+     *
+     * @param adapter The adapter to wrap.
+     * @return The wrapping adapter.
+     */
+    static PrefetchingAdapter wrap(ListAdapter adapter) {
+        boolean filterable = adapter instanceof Filterable;
+        if(adapter instanceof SectionIndexer) {
+            return filterable ? new FilteringSectioned(adapter) : new Sectioned(adapter);
+        }
+        return filterable ? new Filtering(adapter) : new PrefetchingAdapter(adapter);
+    }
+
+    private PrefetchingAdapter(ListAdapter adapter) {
+        mAdapter = adapter;
+        // The list is notified before this observer, but only requests a layout then, so the
+        // rows are always dropped before the list lays out again
+        mAdapter.registerDataSetObserver(mObserver);
+    }
+
+    /**
+     * Drops all prefetched rows and convert views and stops observing the wrapped adapter.
+     */
+    void release() {
+        mAdapter.unregisterDataSetObserver(mObserver);
+        clear();
+        mConvertViews.clear();
+    }
+
+    /**
+     * Drops all prefetched rows. They are kept as convert views for the next prefetched rows.
+     */
+    void clear() {
+        for(int i = 0; i < mPrefetched.size(); i++) {
+            mConvertViews.put(mPrefetched.keyAt(i), mPrefetched.valueAt(i));
+        }
+        mPrefetched.clear();
+        mPrefetchedPositions.clear();
+    }
+
+    /**
+     * Creates the row for the given position, unless a row of its view type is already held.
+     *
+     * @param position The position of the row in the wrapped adapter.
+     * @param parent The list, the row will be shown in.
+     * @return Whether a row has been created.
+     */
+    boolean prefetch(int position, ViewGroup parent) {
+        if(position < 0 || position >= mAdapter.getCount()) {
+            return false;
+        }
+        int viewType = mAdapter.getItemViewType(position);
+        if(viewType < 0 || mPrefetched.get(viewType) != null) {
+            // Rows of ignored view types are never recycled
+            return false;
+        }
+        View convertView = mConvertViews.get(viewType);
+        mConvertViews.remove(viewType);
+        mPrefetched.put(viewType, mAdapter.getView(position, convertView, parent));
+        mPrefetchedPositions.put(viewType, position);
+        return true;
+    }
+
+    @Override
+    public ListAdapter getWrappedAdapter() {
+        return mAdapter;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        int viewType = mAdapter.getItemViewType(position);
+        View view = viewType < 0 ? null : mPrefetched.get(viewType);
+        if(view != null && mPrefetchedPositions.get(viewType) == position) {
+            // The list puts the convert view back into its scrap heap
+            mPrefetched.remove(viewType);
+            mPrefetchedPositions.delete(viewType);
+            return view;
+        }
+        return mAdapter.getView(position, convertView, parent);
+    }
+
+    @Override
+    public boolean areAllItemsEnabled() {
+        return mAdapter.areAllItemsEnabled();
+    }
+
+    @Override
+    public boolean isEnabled(int position) {
+        return mAdapter.isEnabled(position);
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        mAdapter.registerDataSetObserver(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        mAdapter.unregisterDataSetObserver(observer);
+    }
+
+    @Override
+    public int getCount() {
+        return mAdapter.getCount();
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return mAdapter.getItem(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mAdapter.getItemId(position);
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return mAdapter.hasStableIds();
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return mAdapter.getItemViewType(position);
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return mAdapter.getViewTypeCount();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return mAdapter.isEmpty();
+    }
+
+}
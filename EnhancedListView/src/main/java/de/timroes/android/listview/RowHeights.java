@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+/**
+ * Remembers the heights of dismissed rows by the stable ids of their items, so restored rows can
+ * expand to their height without measuring them first. The ids are kept sorted in a primitive
+ * array (a {@code LongSparseArray} isn't available on all supported API levels), so no value is
+ * boxed. The heights are only a hint for the animation, so if too many rows have been dismissed
+ * without being restored or discarded, the oldest height is dropped for every new one.
+ */
+final class RowHeights {
+
+    private static final int MAX_SIZE = 512;
+
+    private long[] mIds = new long[16];
+    private int[] mHeights = new int[16];
+    /**
+     * The order in which the heights have been stored, to find the oldest one.
+     */
+    private int[] mStamps = new int[16];
+    private int mSize;
+    private int mClock;
+
+    /**
+     * Returns the number of stored heights.
+     *
+     * @return The number of heights.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Drops all heights.
+     */
+    void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Stores the height of a row.
+     *
+     * @param id The stable id of the item of the row.
+     * @param height The height of the row in pixels.
+     */
+    void put(long id, int height) {
+        int index = indexOf(id);
+        if(index >= 0) {
+            mHeights[index] = height;
+            mStamps[index] = mClock++;
+            return;
+        }
+        if(mSize >= MAX_SIZE) {
+            removeAt(oldest());
+            index = indexOf(id);
+        }
+        index = -index - 1;
+        if(mSize == mIds.length) {
+            long[] ids = new long[mSize * 2];
+            int[] heights = new int[mSize * 2];
+            int[] stamps = new int[mSize * 2];
+            System.arraycopy(mIds, 0, ids, 0, mSize);
+            System.arraycopy(mHeights, 0, heights, 0, mSize);
+            System.arraycopy(mStamps, 0, stamps, 0, mSize);
+            mIds = ids;
+            mHeights = heights;
+            mStamps = stamps;
+        }
+        System.arraycopy(mIds, index, mIds, index + 1, mSize - index);
+        System.arraycopy(mHeights, index, mHeights, index + 1, mSize - index);
+        System.arraycopy(mStamps, index, mStamps, index + 1, mSize - index);
+        mIds[index] = id;
+        mHeights[index] = height;
+        mStamps[index] = mClock++;
+        mSize++;
+    }
+
+    /**
+     * Removes the height of a row.
+     *
+     * @param id The stable id of the item of the row.
+     * @return The height of the row or {@code -1} if it isn't known.
+     */
+    int remove(long id) {
+        int index = indexOf(id);
+        if(index < 0) {
+            return -1;
+        }
+        int height = mHeights[index];
+        removeAt(index);
+        return height;
+    }
+
+    private void removeAt(int index) {
+        System.arraycopy(mIds, index + 1, mIds, index, mSize - index - 1);
+        System.arraycopy(mHeights, index + 1, mHeights, index, mSize - index - 1);
+        System.arraycopy(mStamps, index + 1, mStamps, index, mSize - index - 1);
+        mSize--;
+    }
+
+    /**
+     * Returns the index of the height, that has been stored first. This scans all heights, but
+     * only runs once the maximum size has been reached.
+     */
+    private int oldest() {
+        int oldest = 0;
+        for(int i = 1; i < mSize; i++) {
+            // Compare the difference, so the order survives an overflow of the clock
+            if(mStamps[i] - mStamps[oldest] < 0) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Searches an id, with the same contract as {@link java.util.Arrays#binarySearch(long[], long)}.
+     */
+    private int indexOf(long id) {
+        int low = 0;
+        int high = mSize - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = mIds[mid];
+            if(value < id) {
+                low = mid + 1;
+            } else if(value > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import android.os.Build;
+import android.view.View;
+
+import com.nineoldandroids.animation.Animator;
+import com.nineoldandroids.animation.AnimatorListenerAdapter;
+import com.nineoldandroids.view.ViewHelper;
+import com.nineoldandroids.view.ViewPropertyAnimator;
+
+/**
+ * Runs the slide animations of swiped list items with the nineoldandroids animator. On API level
+ * 16 and above the view is drawn into a hardware layer while it slides. nineoldandroids proxies to
+ * the platform animator of the view there, so the layer applies to the same animation.
+ */
+final class SlideAnimations {
+
+    /**
+     * An end action, that keeps the listener created for its first animation, so it can be used
+     * for any number of animations without allocating a new listener each time.
+     */
+    abstract static class EndAction implements Runnable {
+
+        private AnimatorListenerAdapter mListener;
+
+    }
+
+    private SlideAnimations() { }
+
+    /**
+     * Slides a view out of the list and fades it out.
+     *
+     * @param view The view to slide out.
+     * @param translationX The translation of the view at the end of the animation.
+     * @param duration The duration of the animation.
+     * @param endAction Run when the animation ends (also if it gets canceled). Pass an
+     *                  {@link EndAction} to reuse its listener.
+     */
+    static void slideOut(View view, float translationX, long duration, Runnable endAction) {
+        slide(view, translationX, 0, duration, endAction);
+    }
+
+    /**
+     * Slides a view back to its original position and fades it in.
+     *
+     * @param view The view to slide back.
+     * @param duration The duration of the animation.
+     */
+    static void slideBack(View view, long duration) {
+        slide(view, 0, 1, duration, null);
+    }
+
+    /**
+     * Fades a view in at its original position.
+     *
+     * @param view The view to fade in.
+     * @param duration The duration of the animation.
+     */
+    static void fadeIn(View view, long duration) {
+        ViewHelper.setAlpha(view, 0f);
+        slide(view, 0, 1, duration, null);
+    }
+
+    /**
+     * Cancels the slide animation of a view without running its end action.
+     *
+     * @param view The view, whose animation should be canceled.
+     */
+    static void cancel(View view) {
+        ViewPropertyAnimator.animate(view).setListener(null).cancel();
+    }
+
+    private static void slide(View view, float translationX, float alpha, long duration, Runnable endAction) {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            view.animate().withLayer();
+        }
+        ViewPropertyAnimator animator = ViewPropertyAnimator.animate(view)
+                .translationX(translationX)
+                .alpha(alpha)
+                .setDuration(duration);
+        animator.setListener(endAction == null ? null : getListener(endAction));
+    }
+
+    private static AnimatorListenerAdapter getListener(final Runnable endAction) {
+        if(endAction instanceof EndAction && ((EndAction) endAction).mListener != null) {
+            return ((EndAction) endAction).mListener;
+        }
+        AnimatorListenerAdapter listener = new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                endAction.run();
+            }
+        };
+        if(endAction instanceof EndAction) {
+            ((EndAction) endAction).mListener = listener;
+        }
+        return listener;
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The minimal difference between two snapshots of the stable ids of a list, computed with Myers'
+ * algorithm in O((n + m) * d) time for d changed items. Items, that changed their position
+ * relative to the other items, count as removed from their old and inserted at their new position.
+ * Like {@link SwipeDismissLogic} this doesn't depend on any Android class.
+ */
+final class SnapshotDiff {
+
+    private final int[] mOldToNew;
+    private final int[] mNewToOld;
+    private final int[] mGapToNew;
+
+    private SnapshotDiff(int[] oldToNew, int[] newToOld) {
+        mOldToNew = oldToNew;
+        mNewToOld = newToOld;
+        mGapToNew = new int[oldToNew.length + 1];
+        mGapToNew[oldToNew.length] = newToOld.length;
+        for(int i = oldToNew.length - 1; i >= 0; i--) {
+            mGapToNew[i] = oldToNew[i] >= 0 ? oldToNew[i] : mGapToNew[i + 1];
+        }
+    }
+
+    /**
+     * Computes the difference between two snapshots.
+     *
+     * @param oldIds The ids of the old snapshot.
+     * @param newIds The ids of the new snapshot.
+     * @return The difference.
+     */
+    static SnapshotDiff compute(long[] oldIds, long[] newIds) {
+
+        int[] oldToNew = new int[oldIds.length];
+        int[] newToOld = new int[newIds.length];
+        for(int i = 0; i < oldToNew.length; i++) {
+            oldToNew[i] = -1;
+        }
+        for(int i = 0; i < newToOld.length; i++) {
+            newToOld[i] = -1;
+        }
+
+        // Items at the start and the end usually don't change, so leave them out of the search
+        int start = 0;
+        int oldEnd = oldIds.length;
+        int newEnd = newIds.length;
+        while(start < oldEnd && start < newEnd && oldIds[start] == newIds[start]) {
+            match(oldToNew, newToOld, start, start);
+            start++;
+        }
+        while(oldEnd > start && newEnd > start && oldIds[oldEnd - 1] == newIds[newEnd - 1]) {
+            oldEnd--;
+            newEnd--;
+            match(oldToNew, newToOld, oldEnd, newEnd);
+        }
+
+        if(start < oldEnd && start < newEnd) {
+            diff(oldIds, newIds, start, oldEnd, start, newEnd, oldToNew, newToOld);
+        }
+
+        return new SnapshotDiff(oldToNew, newToOld);
+    }
+
+    /**
+     * Finds the longest common subsequence of two ranges and marks its items as matching.
+     */
+    private static void diff(long[] a, long[] b, int aStart, int aEnd, int bStart, int bEnd,
+            int[] oldToNew, int[] newToOld) {
+
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int max = n + m;
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        // The furthest reaching path on every diagonal k = x - y before each step d
+        List<int[]> trace = new ArrayList<int[]>();
+
+        int steps = -1;
+        for(int d = 0; d <= max && steps < 0; d++) {
+            int[] snapshot = new int[2 * d + 1];
+            System.arraycopy(v, offset - d, snapshot, 0, snapshot.length);
+            trace.add(snapshot);
+            for(int k = -d; k <= d; k += 2) {
+                int x;
+                if(k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while(x < n && y < m && a[aStart + x] == b[bStart + y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if(x >= n && y >= m) {
+                    steps = d;
+                    break;
+                }
+            }
+        }
+
+        // Walk the path back and mark all diagonal moves as matches
+        int x = n;
+        int y = m;
+        for(int d = steps; d > 0; d--) {
+            int[] previous = trace.get(d);
+            int k = x - y;
+            int previousK;
+            if(k == -d || (k != d && previous[k - 1 + d] < previous[k + 1 + d])) {
+                previousK = k + 1;
+            } else {
+                previousK = k - 1;
+            }
+            int previousX = previous[previousK + d];
+            int previousY = previousX - previousK;
+            while(x > previousX && y > previousY) {
+                x--;
+                y--;
+                match(oldToNew, newToOld, aStart + x, bStart + y);
+            }
+            x = previousX;
+            y = previousY;
+        }
+        while(x > 0 && y > 0) {
+            x--;
+            y--;
+            match(oldToNew, newToOld, aStart + x, bStart + y);
+        }
+
+    }
+
+    private static void match(int[] oldToNew, int[] newToOld, int oldPosition, int newPosition) {
+        oldToNew[oldPosition] = newPosition;
+        newToOld[newPosition] = oldPosition;
+    }
+
+    /**
+     * Returns the number of items in the old snapshot.
+     *
+     * @return The number of old items.
+     */
+    int getOldCount() {
+        return mOldToNew.length;
+    }
+
+    /**
+     * Returns the number of items in the new snapshot.
+     *
+     * @return The number of new items.
+     */
+    int getNewCount() {
+        return mNewToOld.length;
+    }
+
+    /**
+     * Returns the new position of an item.
+     *
+     * @param oldPosition The position of the item in the old snapshot.
+     * @return The position in the new snapshot or {@code -1} if the item has been removed.
+     */
+    int mapPosition(int oldPosition) {
+        return oldPosition >= 0 && oldPosition < mOldToNew.length ? mOldToNew[oldPosition] : -1;
+    }
+
+    /**
+     * Returns the new position of the gap in front of an old item, i.e. the position at which an
+     * item, that would have been inserted at the old position, must be inserted now.
+     *
+     * @param oldGap The position of the gap in the old snapshot.
+     * @return The position of the gap in the new snapshot.
+     */
+    int mapGap(int oldGap) {
+        return mGapToNew[Math.max(0, Math.min(oldGap, mOldToNew.length))];
+    }
+
+    /**
+     * Returns whether an item of the new snapshot has been inserted.
+     *
+     * @param newPosition The position of the item in the new snapshot.
+     * @return Whether the item hasn't been part of the old snapshot (at a matching position).
+     */
+    boolean isInserted(int newPosition) {
+        return mNewToOld[newPosition] < 0;
+    }
+
+}
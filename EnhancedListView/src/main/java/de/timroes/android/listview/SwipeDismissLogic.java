@@ -0,0 +1,262 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+/**
+ * Decides whether a touch gesture on a list item is a swipe and whether it dismisses the item.
+ * This is the part of the <i>Swipe to Dismiss</i> handling of {@link EnhancedListView} that
+ * doesn't depend on any Android class, so it can also be run on a plain JVM, e.g. by the
+ * {@link de.timroes.android.listview.GestureTraceReplayer}.
+ * <p>
+ * All coordinates are raw screen coordinates in pixels, velocities are in pixels per second.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public final class SwipeDismissLogic {
+
+    /**
+     * Returned by {@link #up(float, float, float)} if the item should not be dismissed.
+     */
+    public static final int DISMISS_NONE = 0;
+
+    /**
+     * Returned by {@link #up(float, float, float)} if the item should be dismissed to the left.
+     */
+    public static final int DISMISS_LEFT = -1;
+
+    /**
+     * Returned by {@link #up(float, float, float)} if the item should be dismissed to the right.
+     */
+    public static final int DISMISS_RIGHT = 1;
+
+    /**
+     * Set in the result of {@link #move(float)} if the movement is in an allowed direction.
+     */
+    public static final int MOVE_DIRECTION_VALID = 1;
+
+    /**
+     * Set in the result of {@link #move(float)} if the finger moved further than the touch slop.
+     */
+    public static final int MOVE_BEYOND_SLOP = 2;
+
+    private float mSlop;
+    private int mMinFlingVelocity;
+    private int mMaxFlingVelocity;
+    private int mViewWidth = 1; // 1 and not 0 to prevent dividing by zero
+    private int mAllowedDirection;
+
+    private float mDownX;
+    private float mDeltaX;
+    private boolean mSwiping;
+
+    /**
+     * Sets the constants used to detect swipes and flings.
+     *
+     * @param slop The distance the finger must move before a swipe starts.
+     * @param minFlingVelocity The minimum velocity of a fling.
+     * @param maxFlingVelocity The maximum velocity of a fling.
+     */
+    public void setConstants(float slop, int minFlingVelocity, int maxFlingVelocity) {
+        mSlop = slop;
+        mMinFlingVelocity = minFlingVelocity;
+        mMaxFlingVelocity = maxFlingVelocity;
+    }
+
+    /**
+     * Sets the width of the list, used to detect how far an item has been swiped.
+     *
+     * @param viewWidth The width of the list in pixels.
+     */
+    public void setViewWidth(int viewWidth) {
+        mViewWidth = Math.max(viewWidth, 1);
+    }
+
+    /**
+     * Sets the direction in which items can be swiped.
+     *
+     * @param allowedDirection {@code 0} if items can be swiped in both directions, {@code -1} if
+     *                         only to the left and {@code 1} if only to the right.
+     */
+    public void setAllowedDirection(int allowedDirection) {
+        mAllowedDirection = allowedDirection;
+    }
+
+    /**
+     * Returns the distance the finger must move before a swipe starts.
+     *
+     * @return The touch slop in pixels.
+     */
+    public float getSlop() {
+        return mSlop;
+    }
+
+    /**
+     * Returns the minimum velocity of a fling.
+     *
+     * @return The minimum fling velocity.
+     */
+    public int getMinFlingVelocity() {
+        return mMinFlingVelocity;
+    }
+
+    /**
+     * Returns the maximum velocity of a fling.
+     *
+     * @return The maximum fling velocity.
+     */
+    public int getMaxFlingVelocity() {
+        return mMaxFlingVelocity;
+    }
+
+    /**
+     * Returns the direction in which items can be swiped.
+     *
+     * @return The direction set via {@link #setAllowedDirection(int)}.
+     */
+    public int getAllowedDirection() {
+        return mAllowedDirection;
+    }
+
+    /**
+     * Returns the width of the list, set via {@link #setViewWidth(int)}.
+     *
+     * @return The width of the list in pixels.
+     */
+    public int getViewWidth() {
+        return mViewWidth;
+    }
+
+    /**
+     * Checks whether the delta of a swipe indicates, that the swipe is in an allowed direction.
+     *
+     * @param deltaX The delta of x coordinate of the swipe.
+     * @return Whether the delta of a swipe is in the right direction.
+     */
+    public boolean isDirectionValid(float deltaX) {
+        return mAllowedDirection == 0 || mAllowedDirection * deltaX > 0;
+    }
+
+    /**
+     * Starts tracking a gesture.
+     *
+     * @param x The x coordinate the user touched down.
+     */
+    public void down(float x) {
+        mDownX = x;
+        mDeltaX = 0;
+        mSwiping = false;
+    }
+
+    /**
+     * Tracks a movement of the finger.
+     *
+     * @param x The current x coordinate of the finger.
+     * @return A combination of {@link #MOVE_DIRECTION_VALID} and {@link #MOVE_BEYOND_SLOP}.
+     */
+    public int move(float x) {
+        int result = 0;
+        mDeltaX = x - mDownX;
+        // Only start swipe in correct direction
+        if(isDirectionValid(mDeltaX)) {
+            result |= MOVE_DIRECTION_VALID;
+            if(Math.abs(mDeltaX) > mSlop) {
+                result |= MOVE_BEYOND_SLOP;
+                mSwiping = true;
+            }
+        } else {
+            // If we swiped into wrong direction, act like this was the new
+            // touch down point
+            mDownX = x;
+            mDeltaX = 0;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the distance the item has been swiped by the last call to {@link #move(float)}.
+     *
+     * @return The swiped distance.
+     */
+    public float getDeltaX() {
+        return mDeltaX;
+    }
+
+    /**
+     * Returns the alpha value, a swiped item should have at the current distance.
+     *
+     * @return The alpha value between 0 and 1.
+     */
+    public float getAlpha() {
+        return Math.max(0f, Math.min(1f, 1f - 2f * Math.abs(mDeltaX) / mViewWidth));
+    }
+
+    /**
+     * Returns whether the gesture is a swipe.
+     *
+     * @return Whether the user is swiping an item.
+     */
+    public boolean isSwiping() {
+        return mSwiping;
+    }
+
+    /**
+     * Returns whether the item has been swiped far enough by the last call to {@link #move(float)},
+     * that lifting the finger would dismiss it, no matter how fast the finger moved.
+     *
+     * @return Whether the item is swiped beyond the dismiss threshold.
+     */
+    public boolean isBeyondDismissDistance() {
+        return mSwiping && isDismissDistance(mDeltaX);
+    }
+
+    private boolean isDismissDistance(float deltaX) {
+        return Math.abs(deltaX) > mViewWidth / 2;
+    }
+
+    /**
+     * Ends the gesture and decides whether the item should be dismissed.
+     *
+     * @param x The x coordinate the user lifted the finger.
+     * @param velocityX The horizontal velocity of the finger.
+     * @param velocityY The vertical velocity of the finger.
+     * @return {@link #DISMISS_NONE}, {@link #DISMISS_LEFT} or {@link #DISMISS_RIGHT}.
+     */
+    public int up(float x, float velocityX, float velocityY) {
+        float deltaX = x - mDownX;
+        float absVelocityX = Math.abs(velocityX);
+        float absVelocityY = Math.abs(velocityY);
+        int result = DISMISS_NONE;
+        if (isDismissDistance(deltaX) && mSwiping) {
+            result = deltaX > 0 ? DISMISS_RIGHT : DISMISS_LEFT;
+        } else if (mMinFlingVelocity <= absVelocityX && absVelocityX <= mMaxFlingVelocity
+                && absVelocityY < absVelocityX && mSwiping && isDirectionValid(velocityX)
+                && deltaX >= mViewWidth * 0.2f) {
+            result = velocityX > 0 ? DISMISS_RIGHT : DISMISS_LEFT;
+        }
+        mDeltaX = deltaX;
+        return result;
+    }
+
+    /**
+     * Resets the state after a gesture has ended.
+     */
+    public void reset() {
+        mDownX = 0;
+        mDeltaX = 0;
+        mSwiping = false;
+    }
+
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.timroes.android.listview.EnhancedListView.Undoable;
+
+/**
+ * Keeps track of the adapter positions, at which the pending undos of one list would reinsert
+ * their items. Every dismiss moves the pending undos of the items below it up by one, every undo
+ * moves the pending undos of the items below it down by one, so any pending undo can be undone
+ * at any time.
+ * <p>
+ * The pending undos are kept in the order of their items in the list in a treap. Every entry only
+ * stores the distance of its position to the position of the previous entry, and every node the sum
+ * of these distances in its subtree. Shifting all entries below a position therefore only changes
+ * a single distance, and the position of an entry is the sum of all distances up to it, so every
+ * operation takes O(log n) for n pending undos.
+ */
+final class UndoIndex {
+
+    /**
+     * A pending undo and its node in the treap.
+     */
+    static final class Entry {
+
+        final UndoIndex index;
+        long id;
+        Undoable undoable;
+        /**
+         * Changes whenever the entry is reused for another undo.
+         */
+        int generation;
+
+        private Entry parent;
+        private Entry left;
+        private Entry right;
+        private int priority;
+        private int distance;
+        private int sum;
+
+        private Entry(UndoIndex index) {
+            this.index = index;
+        }
+
+    }
+
+    final EnhancedListView listView;
+
+    private final Random mRandom = new Random();
+    private final List<Entry> mPool = new ArrayList<Entry>();
+    private Entry mRoot;
+
+    /**
+     * Creates the index of the pending undos of a list.
+     *
+     * @param listView The list.
+     */
+    UndoIndex(EnhancedListView listView) {
+        this.listView = listView;
+    }
+
+    /**
+     * Records that the item at the given position has been dismissed.
+     *
+     * @param position The position of the item in the adapter, when it has been dismissed.
+     * @param id The stable id of the item or {@link android.widget.AdapterView#INVALID_ROW_ID}
+     *           if the adapter has no stable ids.
+     * @param undoable The undo of the dismiss or {@code null} if it can't be undone.
+     * @return The entry of the undo or {@code null} if it can't be undone.
+     */
+    Entry add(int position, long id, Undoable undoable) {
+
+        // Find the first entry behind the position and the position of the entry before it
+        Entry next = null;
+        int nextPosition = 0;
+        int previousPosition = 0;
+        Entry node = mRoot;
+        int offset = 0;
+        while(node != null) {
+            int nodePosition = offset + sum(node.left) + node.distance;
+            if(nodePosition > position) {
+                next = node;
+                nextPosition = nodePosition;
+                node = node.left;
+            } else {
+                previousPosition = offset = nodePosition;
+                node = node.right;
+            }
+        }
+
+        Entry entry = null;
+        if(undoable != null) {
+            entry = mPool.isEmpty() ? new Entry(this) : mPool.remove(mPool.size() - 1);
+            entry.id = id;
+            entry.undoable = undoable;
+            entry.priority = mRandom.nextInt();
+            entry.distance = position - previousPosition;
+            insertBefore(entry, next);
+            previousPosition = position;
+        }
+
+        if(next != null) {
+            // All items behind the dismissed one moved up by one
+            next.distance = nextPosition - 1 - previousPosition;
+            updateSums(next);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns the position, at which the item of the given entry must be reinserted into the adapter.
+     *
+     * @param entry The entry.
+     * @return The current position of the item.
+     */
+    int positionOf(Entry entry) {
+        int position = sum(entry.left) + entry.distance;
+        for(Entry node = entry; node.parent != null; node = node.parent) {
+            if(node == node.parent.right) {
+                position += sum(node.parent.left) + node.parent.distance;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Removes an entry, after its undo has either been undone or discarded.
+     *
+     * @param entry The entry to remove.
+     * @param undone Whether the item has been reinserted into the adapter.
+     */
+    void remove(Entry entry, boolean undone) {
+
+        Entry next = successor(entry);
+        if(next != null) {
+            next.distance += entry.distance + (undone ? 1 : 0);
+            updateSums(next);
+        }
+
+        // Rotate the entry down, until it can be cut out
+        while(entry.left != null && entry.right != null) {
+            rotateUp(entry.left.priority < entry.right.priority ? entry.left : entry.right);
+        }
+        Entry child = entry.left != null ? entry.left : entry.right;
+        Entry parent = entry.parent;
+        replaceChild(parent, entry, child);
+        entry.parent = entry.left = entry.right = null;
+        updateSums(parent);
+
+    }
+
+    /**
+     * Puts an entry, that has been removed, back into the pool, so it can be reused for another
+     * undo. The entry must not be used afterwards.
+     *
+     * @param entry The removed entry.
+     */
+    void recycle(Entry entry) {
+        entry.undoable = null;
+        entry.generation++;
+        mPool.add(entry);
+    }
+
+    /**
+     * Drops all entries kept for reuse.
+     */
+    void releasePool() {
+        mPool.clear();
+    }
+
+    /**
+     * Removes all entries.
+     */
+    void clear() {
+        mRoot = null;
+    }
+
+    /**
+     * Moves all entries to their positions in a new snapshot of the data.
+     *
+     * @param diff The difference between the current and the new snapshot.
+     */
+    void remap(SnapshotDiff diff) {
+        remap(mRoot, diff, new int[2]);
+    }
+
+    /**
+     * Remaps a subtree in the order of the entries.
+     *
+     * @param positions The old and the new position of the entry before the subtree.
+     */
+    private static void remap(Entry node, SnapshotDiff diff, int[] positions) {
+        if(node == null) {
+            return;
+        }
+        remap(node.left, diff, positions);
+        positions[0] += node.distance;
+        int newPosition = diff.mapGap(positions[0]);
+        node.distance = newPosition - positions[1];
+        positions[1] = newPosition;
+        remap(node.right, diff, positions);
+        updateSum(node);
+    }
+
+    private void insertBefore(Entry entry, Entry next) {
+        if(mRoot == null) {
+            mRoot = entry;
+        } else if(next == null) {
+            Entry last = mRoot;
+            while(last.right != null) {
+                last = last.right;
+            }
+            last.right = entry;
+            entry.parent = last;
+        } else if(next.left == null) {
+            next.left = entry;
+            entry.parent = next;
+        } else {
+            Entry previous = next.left;
+            while(previous.right != null) {
+                previous = previous.right;
+            }
+            previous.right = entry;
+            entry.parent = previous;
+        }
+        updateSums(entry);
+        while(entry.parent != null && entry.priority < entry.parent.priority) {
+            rotateUp(entry);
+        }
+    }
+
+    private static Entry successor(Entry entry) {
+        if(entry.right != null) {
+            Entry node = entry.right;
+            while(node.left != null) {
+                node = node.left;
+            }
+            return node;
+        }
+        Entry node = entry;
+        while(node.parent != null && node == node.parent.right) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    /**
+     * Rotates a node above its parent. This keeps the order of the entries, so only the sums of
+     * the two nodes change.
+     */
+    private void rotateUp(Entry node) {
+        Entry parent = node.parent;
+        replaceChild(parent.parent, parent, node);
+        if(node == parent.left) {
+            parent.left = node.right;
+            if(node.right != null) {
+                node.right.parent = parent;
+            }
+            node.right = parent;
+        } else {
+            parent.right = node.left;
+            if(node.left != null) {
+                node.left.parent = parent;
+            }
+            node.left = parent;
+        }
+        parent.parent = node;
+        updateSum(parent);
+        updateSum(node);
+    }
+
+    private void replaceChild(Entry parent, Entry child, Entry replacement) {
+        if(parent == null) {
+            mRoot = replacement;
+        } else if(parent.left == child) {
+            parent.left = replacement;
+        } else {
+            parent.right = replacement;
+        }
+        if(replacement != null) {
+            replacement.parent = parent;
+        }
+    }
+
+    private static void updateSums(Entry node) {
+        for(; node != null; node = node.parent) {
+            updateSum(node);
+        }
+    }
+
+    private static void updateSum(Entry node) {
+        node.sum = sum(node.left) + node.distance + sum(node.right);
+    }
+
+    private static int sum(Entry node) {
+        return node == null ? 0 : node.sum;
+    }
+
+}
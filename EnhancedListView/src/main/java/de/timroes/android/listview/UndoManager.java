@@ -0,0 +1,618 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import android.app.AlertDialog;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Message;
+import android.view.Gravity;
+import android.view.LayoutInflater;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.PopupWindow;
+import android.widget.TextView;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.timroes.android.listview.EnhancedListView.UndoStyle;
+
+/**
+ * Holds the undo popup and all pending {@link EnhancedListView.Undoable undos} of one or more
+ * {@link EnhancedListView EnhancedListViews}. Every list creates its own undo manager by default.
+ * If several lists are visible at the same time (e.g. in different tabs of one screen), pass the
+ * same instance to {@link EnhancedListView#setUndoManager(UndoManager)} of all these lists. They
+ * will then share one undo popup and one auto hide delay, and all their undos will be discarded
+ * together.
+ * <p>
+ * The undo style, the hide delay and whether a touch is required before the popup hides, are
+ * taken from the list, that most recently dismissed an item.
+ * <p>
+ * With {@link UndoStyle#MULTILEVEL_POPUP} the user can pick any pending undo from a history,
+ * by long clicking the undo button, and you can undo any pending undo via {@link #undo(int)}.
+ * The positions of the remaining undos will be corrected and passed to
+ * {@link EnhancedListView.Undoable#undoAt(int)}.
+ *
+ * @author Tim Roes <mail@timroes.de>
+ */
+public class UndoManager {
+
+    private class UndoClickListener implements View.OnClickListener {
+
+        /**
+         * Called when a view has been clicked.
+         *
+         * @param v The view that was clicked.
+         */
+        @Override
+        public void onClick(View v) {
+            if(!mUndoActions.isEmpty()) {
+                logEvent(PipelineEventLog.UNDO, mUndoActions.size());
+                PipelineEventLog.beginSection("ELV:undo");
+                switch(getUndoStyle()) {
+                    case SINGLE_POPUP:
+                        undoEntry(mUndoActions.get(0));
+                        mUndoActions.clear();
+                        break;
+                    case COLLAPSED_POPUP:
+                        Collections.reverse(mUndoActions);
+                        for(UndoIndex.Entry entry : mUndoActions) {
+                            undoEntry(entry);
+                        }
+                        mUndoActions.clear();
+                        break;
+                    case MULTILEVEL_POPUP:
+                        undoEntry(mUndoActions.remove(mUndoActions.size() - 1));
+                        break;
+                }
+                PipelineEventLog.endSection();
+            }
+
+            onUndone();
+        }
+    }
+
+    private class UndoLongClickListener implements View.OnLongClickListener {
+
+        /**
+         * Shows the undo history, if the user can pick single undos from it.
+         *
+         * @param v The view that was long clicked.
+         */
+        @Override
+        public boolean onLongClick(View v) {
+            if(getUndoStyle() != UndoStyle.MULTILEVEL_POPUP || mUndoActions.size() < 2) {
+                return false;
+            }
+            showUndoHistory();
+            return true;
+        }
+    }
+
+    /**
+     * Handler hiding the undo popup after a delay. It only holds a weak reference to the manager,
+     * so that pending messages won't keep the manager (and its lists) alive.
+     */
+    private static class HideUndoPopupHandler extends Handler {
+
+        private final WeakReference<UndoManager> mUndoManager;
+
+        HideUndoPopupHandler(UndoManager undoManager) {
+            mUndoManager = new WeakReference<UndoManager>(undoManager);
+        }
+
+        /**
+         * Subclasses must implement this to receive messages.
+         */
+        @Override
+        public void handleMessage(Message msg) {
+            UndoManager undoManager = mUndoManager.get();
+            if(undoManager != null && msg.what == undoManager.mValidDelayedMsgId) {
+                undoManager.discardUndo();
+            }
+        }
+    }
+
+    /**
+     * Forwards trim memory events of the application to the manager. This is kept in its own class,
+     * since {@link android.content.ComponentCallbacks2} doesn't exist before API level 14 and
+     * this class must not be loaded on these devices.
+     */
+    private class TrimMemoryCallbacks implements ComponentCallbacks2 {
+
+        @Override
+        public void onTrimMemory(int level) {
+            if(level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                releaseResources();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) { }
+
+        @Override
+        public void onLowMemory() {
+            releaseResources();
+        }
+
+    }
+
+    private final Context mContext;
+
+    private List<UndoIndex.Entry> mUndoActions = new ArrayList<UndoIndex.Entry>();
+    private List<EnhancedListView> mAttachedLists = new ArrayList<EnhancedListView>();
+    private EnhancedListView mAnchor;
+
+    private PopupWindow mUndoPopup;
+    private TextView mUndoPopupTextView;
+    private Button mUndoButton;
+    private AlertDialog mUndoHistory;
+    private Object mTrimMemoryCallbacks;
+    private int mValidDelayedMsgId;
+    private Handler mHideUndoHandler = new HideUndoPopupHandler(this);
+
+    /**
+     * Creates a new undo manager. Pass this to
+     * {@link EnhancedListView#setUndoManager(UndoManager)} of every list that should share it.
+     *
+     * @param context The context used to inflate the undo popup.
+     */
+    public UndoManager(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Discard all stored undos of all lists using this manager and hide the undo popup.
+     *
+     * @see EnhancedListView#discardUndo()
+     */
+    public void discardUndo() {
+        for(EnhancedListView listView : mAttachedLists) {
+            listView.commitInlineUndos(false);
+        }
+        discardAll();
+        if(isUndoPopupShowing()) {
+            mUndoPopup.dismiss();
+        }
+        if(mUndoHistory != null) {
+            mUndoHistory.dismiss();
+        }
+    }
+
+    /**
+     * Undoes a single pending undo. Undos, that have been stored after it, stay pending and the
+     * positions passed to their {@link EnhancedListView.Undoable#undoAt(int)} will be corrected.
+     * Use this to offer your own undo history for lists using {@link UndoStyle#MULTILEVEL_POPUP}.
+     *
+     * @param index The index of the undo, {@code 0} being the oldest pending undo and
+     *              {@link #getUndoCount()} - 1 the most recent one.
+     * @throws java.lang.IndexOutOfBoundsException If there is no undo with the given index.
+     */
+    public void undo(int index) {
+        UndoIndex.Entry entry = mUndoActions.remove(index);
+        logEvent(PipelineEventLog.UNDO, 1);
+        PipelineEventLog.beginSection("ELV:undo");
+        undoEntry(entry);
+        PipelineEventLog.endSection();
+        if(mUndoPopup != null) {
+            onUndone();
+        }
+    }
+
+    /**
+     * Undoes the pending undos of the items with the given stable ids, that have been dismissed
+     * from the given list. Ids without a pending undo are ignored.
+     *
+     * @param listView The list, the items have been dismissed from.
+     * @param ids The sorted stable ids of the items.
+     * @param count The number of ids in the array.
+     * @return The number of undone items.
+     */
+    int undoItems(EnhancedListView listView, long[] ids, int count) {
+        int undone = 0;
+        for(int i = mUndoActions.size() - 1; i >= 0; i--) {
+            UndoIndex.Entry entry = mUndoActions.get(i);
+            if(entry.index.listView != listView || DismissCommandBatch.indexOfId(ids, count, entry.id) < 0) {
+                continue;
+            }
+            if(undone++ == 0) {
+                PipelineEventLog.beginSection("ELV:undo");
+            }
+            mUndoActions.remove(i);
+            undoEntry(entry);
+        }
+        if(undone > 0) {
+            PipelineEventLog.endSection();
+            logEvent(PipelineEventLog.UNDO, undone);
+            if(mUndoPopup != null) {
+                onUndone();
+            }
+        }
+        return undone;
+    }
+
+    /**
+     * Returns the title of a pending undo, as returned by {@link EnhancedListView.Undoable#getTitle()}.
+     *
+     * @param index The index of the undo, {@code 0} being the oldest pending undo.
+     * @return The title of the undo or {@code null} if it has no title.
+     * @throws java.lang.IndexOutOfBoundsException If there is no undo with the given index.
+     */
+    public String getUndoTitle(int index) {
+        return mUndoActions.get(index).undoable.getTitle();
+    }
+
+    /**
+     * Returns whether the undo popup is currently visible.
+     *
+     * @return Whether the undo popup is showing.
+     */
+    public boolean isUndoPopupShowing() {
+        return mUndoPopup != null && mUndoPopup.isShowing();
+    }
+
+    /**
+     * Returns the number of undos currently stored in this manager.
+     *
+     * @return The number of stored undos.
+     */
+    public int getUndoCount() {
+        return mUndoActions.size();
+    }
+
+    /**
+     * Discards all stored undos.
+     */
+    private void discardAll() {
+        if(mUndoActions.isEmpty()) {
+            return;
+        }
+        logEvent(PipelineEventLog.DISCARD, mUndoActions.size());
+        PipelineEventLog.beginSection("ELV:discard");
+        for(UndoIndex.Entry entry : mUndoActions) {
+            discardEntry(entry);
+        }
+        mUndoActions.clear();
+        PipelineEventLog.endSection();
+    }
+
+    /**
+     * Reinserts the item of an undo, that has already been removed from the stored undos, at its
+     * current position, and lets its list expand the row of the item.
+     *
+     * @param entry The undo.
+     */
+    private void undoEntry(UndoIndex.Entry entry) {
+        UndoIndex index = entry.index;
+        EnhancedListView.Undoable undoable = entry.undoable;
+        int position = index.positionOf(entry);
+        index.remove(entry, true);
+        index.recycle(entry);
+        undoable.undoAt(position);
+        index.listView.onItemRestored(position);
+    }
+
+    /**
+     * Discards an undo, that has already been removed from the stored undos.
+     *
+     * @param entry The undo.
+     */
+    private static void discardEntry(UndoIndex.Entry entry) {
+        UndoIndex index = entry.index;
+        EnhancedListView.Undoable undoable = entry.undoable;
+        long id = entry.id;
+        index.remove(entry, false);
+        index.recycle(entry);
+        undoable.discard();
+        index.listView.onItemDiscarded(id);
+    }
+
+    /**
+     * Hides the popup, if all undos have been undone, or updates it otherwise.
+     */
+    private void onUndone() {
+        if(mUndoActions.isEmpty()) {
+            if(isUndoPopupShowing()) {
+                mUndoPopup.dismiss();
+            }
+        } else {
+            changePopupText();
+            changeButtonLabel();
+        }
+        mValidDelayedMsgId++;
+    }
+
+    /**
+     * Shows a dialog listing all pending undos, the most recent first, to let the user undo a
+     * single one of them.
+     */
+    private void showUndoHistory() {
+
+        final UndoIndex.Entry[] entries = new UndoIndex.Entry[mUndoActions.size()];
+        final int[] generations = new int[entries.length];
+        String[] titles = new String[entries.length];
+        for(int i = 0; i < entries.length; i++) {
+            entries[i] = mUndoActions.get(entries.length - 1 - i);
+            generations[i] = entries[i].generation;
+            titles[i] = entries[i].undoable.getTitle();
+            if(titles[i] == null) {
+                titles[i] = mContext.getResources().getString(R.string.elv_item_deleted);
+            }
+        }
+
+        // Keep the popup open while the user picks an undo
+        mValidDelayedMsgId++;
+        mUndoHistory = new AlertDialog.Builder(mContext)
+                .setTitle(R.string.elv_undo_history_title)
+                .setItems(titles, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        // The undo might have been discarded meanwhile and its entry reused
+                        int index = mUndoActions.indexOf(entries[which]);
+                        if(index >= 0 && entries[which].generation == generations[which]) {
+                            undo(index);
+                        }
+                    }
+                })
+                .create();
+        mUndoHistory.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface dialog) {
+                mUndoHistory = null;
+                if(mAnchor != null && isUndoPopupShowing() && !mAnchor.isTouchBeforeAutoHide()) {
+                    mHideUndoHandler.sendMessageDelayed(mHideUndoHandler.obtainMessage(mValidDelayedMsgId),
+                            mAnchor.getUndoHideDelay());
+                }
+            }
+        });
+        mUndoHistory.show();
+
+    }
+
+    /**
+     * Records an event in the event log of the list, that stored the last undo.
+     *
+     * @param event The event type, one of the constants in {@link PipelineEventLog}.
+     * @param arg An argument of the event.
+     */
+    private void logEvent(int event, int arg) {
+        if(mAnchor != null) {
+            mAnchor.logEvent(event, arg);
+        }
+    }
+
+    /**
+     * Called by a list when it is attached to its window.
+     *
+     * @param listView The list that has been attached.
+     */
+    void attach(EnhancedListView listView) {
+        if(mAttachedLists.contains(listView)) {
+            return;
+        }
+        mAttachedLists.add(listView);
+        if(mTrimMemoryCallbacks == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            TrimMemoryCallbacks callbacks = new TrimMemoryCallbacks();
+            mContext.getApplicationContext().registerComponentCallbacks(callbacks);
+            mTrimMemoryCallbacks = callbacks;
+        }
+    }
+
+    /**
+     * Called by a list when it is detached from its window. As soon as no list is attached anymore,
+     * all stored undos will be discarded and no references to any list will be kept.
+     *
+     * @param listView The list that has been detached.
+     */
+    void detach(EnhancedListView listView) {
+        mAttachedLists.remove(listView);
+        if(mAnchor == listView) {
+            mAnchor = mAttachedLists.isEmpty() ? null : mAttachedLists.get(mAttachedLists.size() - 1);
+        }
+        if(mAttachedLists.isEmpty()) {
+            discardUndo();
+            mValidDelayedMsgId++;
+            mHideUndoHandler.removeCallbacksAndMessages(null);
+            if(mTrimMemoryCallbacks != null) {
+                mContext.getApplicationContext().unregisterComponentCallbacks(
+                        (ComponentCallbacks2) mTrimMemoryCallbacks);
+                mTrimMemoryCallbacks = null;
+            }
+        }
+    }
+
+    /**
+     * Stores the undos, that have been returned by the dismiss callback of the given list for one
+     * batch of dismissed items. If the list uses {@link UndoStyle#SINGLE_POPUP} all previously
+     * stored undos and all but the last undo of the batch will be discarded.
+     *
+     * @param listView The list the items have been dismissed from.
+     * @param undoables The entries of the undos in the {@link UndoIndex} of the list, in the order
+     *                  the items have been dismissed. Entries might be {@code null} if an item
+     *                  cannot be undone.
+     */
+    void addUndoables(EnhancedListView listView, List<UndoIndex.Entry> undoables) {
+        mAnchor = listView;
+        int size = undoables.size();
+        if(listView.getUndoStyle() == UndoStyle.SINGLE_POPUP) {
+            discardAll();
+            for(int i = 0; i < size - 1; i++) {
+                UndoIndex.Entry entry = undoables.get(i);
+                if(entry != null) {
+                    discardEntry(entry);
+                }
+            }
+            if(size > 0 && undoables.get(size - 1) != null) {
+                mUndoActions.add(undoables.get(size - 1));
+            }
+        } else {
+            for(int i = 0; i < size; i++) {
+                UndoIndex.Entry entry = undoables.get(i);
+                if(entry != null) {
+                    mUndoActions.add(entry);
+                }
+            }
+        }
+        mValidDelayedMsgId++;
+    }
+
+    /**
+     * Shows the undo popup at the bottom of the given list, if there are any stored undos.
+     *
+     * @param listView The list the popup should be shown for.
+     */
+    void showUndoPopup(EnhancedListView listView) {
+
+        if(mUndoActions.isEmpty()) {
+            return;
+        }
+
+        mAnchor = listView;
+        ensureUndoPopup();
+        changePopupText();
+        changeButtonLabel();
+
+        // Show undo popup
+        float yLocationOffset = mContext.getResources().getDimension(R.dimen.elv_undo_bottom_offset);
+        float density = mContext.getResources().getDisplayMetrics().density;
+        mUndoPopup.setWidth((int)Math.min(density * 400, listView.getWidth() * 0.9f));
+        mUndoPopup.showAtLocation(listView,
+                Gravity.CENTER_HORIZONTAL | Gravity.BOTTOM,
+                0, (int) yLocationOffset);
+
+        // Queue the dismiss only if required
+        if(!listView.isTouchBeforeAutoHide()) {
+            // Send a delayed message to hide popup
+            mHideUndoHandler.sendMessageDelayed(mHideUndoHandler.obtainMessage(mValidDelayedMsgId),
+                    listView.getUndoHideDelay());
+        }
+
+    }
+
+    /**
+     * Called by a list when the user touches it. Starts the countdown to hide the popup, if the
+     * list requires a touch before hiding it.
+     *
+     * @param listView The list that has been touched.
+     */
+    void onListTouched(EnhancedListView listView) {
+        if(listView.isTouchBeforeAutoHide() && isUndoPopupShowing()) {
+            mHideUndoHandler.sendMessageDelayed(mHideUndoHandler.obtainMessage(mValidDelayedMsgId),
+                    listView.getUndoHideDelay());
+        }
+    }
+
+    /**
+     * Commits all pending undos in one batch and drops the undo popup with all its views, so
+     * they can be garbage collected. The popup will be inflated again the next time it is needed.
+     * This is called when the system asks the application to trim its memory.
+     */
+    void releaseResources() {
+        for(EnhancedListView listView : mAttachedLists) {
+            listView.releaseUndoResources();
+        }
+        discardUndo();
+        mValidDelayedMsgId++;
+        mHideUndoHandler.removeCallbacksAndMessages(null);
+        mUndoPopup = null;
+        mUndoPopupTextView = null;
+        mUndoButton = null;
+    }
+
+    /**
+     * Returns the undo style of the list, that most recently stored an undo.
+     *
+     * @return The undo style to use.
+     */
+    private UndoStyle getUndoStyle() {
+        return mAnchor != null ? mAnchor.getUndoStyle() : UndoStyle.SINGLE_POPUP;
+    }
+
+    /**
+     * Inflates the undo popup and its views, if they haven't been created yet or have been
+     * released by {@link #releaseResources()}.
+     */
+    private void ensureUndoPopup() {
+
+        if(mUndoPopup != null) {
+            return;
+        }
+
+        LayoutInflater inflater = (LayoutInflater)mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        View undoView = inflater.inflate(R.layout.elv_undo_popup, null);
+        mUndoButton = (Button)undoView.findViewById(R.id.undo);
+        mUndoButton.setOnClickListener(new UndoClickListener());
+        mUndoButton.setOnLongClickListener(new UndoLongClickListener());
+        mUndoButton.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View v, MotionEvent event) {
+                // If the user touches the screen invalidate the current running delay by incrementing
+                // the valid message id. So this delay won't hide the undo popup anymore
+                mValidDelayedMsgId++;
+                return false;
+            }
+        });
+        mUndoPopupTextView = (TextView)undoView.findViewById(R.id.text);
+
+        mUndoPopup = new PopupWindow(undoView, ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT, false);
+        mUndoPopup.setAnimationStyle(R.style.elv_fade_animation);
+
+    }
+
+    /**
+     * Changes the text of the undo popup. If more then one item can be undone, the number of deleted
+     * items will be shown. If only one deletion can be undone, the title of this deletion (or a default
+     * string in case the title is {@code null}) will be shown.
+     */
+    private void changePopupText() {
+        String msg = null;
+        if(mUndoActions.size() > 1) {
+            msg = mContext.getResources().getString(R.string.elv_n_items_deleted, mUndoActions.size());
+        } else if(mUndoActions.size() >= 1) {
+            // Set title from single undoable or when no multiple deletion string
+            // is given
+            msg = mUndoActions.get(mUndoActions.size() - 1).undoable.getTitle();
+
+            if(msg == null) {
+                msg = mContext.getResources().getString(R.string.elv_item_deleted);
+            }
+        }
+        mUndoPopupTextView.setText(msg);
+    }
+
+    /**
+     * Changes the label of the undo button.
+     */
+    private void changeButtonLabel() {
+        String msg;
+        if(mUndoActions.size() > 1 && getUndoStyle() == UndoStyle.COLLAPSED_POPUP) {
+            msg = mContext.getResources().getString(R.string.elv_undo_all);
+        } else {
+            msg = mContext.getResources().getString(R.string.elv_undo);
+        }
+        mUndoButton.setText(msg);
+    }
+
+}
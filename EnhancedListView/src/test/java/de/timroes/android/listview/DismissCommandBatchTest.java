@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the batching of deletes and restores submitted to a list and the search of the deleted
+ * items in the adapter.
+ */
+public class DismissCommandBatchTest extends TestCase {
+
+    /**
+     * Items with the given ids, that counts the ids read.
+     */
+    private static class Items implements DismissCommandBatch.Items {
+
+        private final long[] mIds;
+        int reads;
+
+        Items(long... ids) {
+            mIds = ids;
+        }
+
+        @Override
+        public int getCount() {
+            return mIds.length;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            reads++;
+            return mIds[position];
+        }
+
+    }
+
+    private final DismissCommandBatch mBatch = new DismissCommandBatch();
+
+    private static Items ascending(int count) {
+        long[] ids = new long[count];
+        for(int i = 0; i < count; i++) {
+            ids[i] = i + 1;
+        }
+        return new Items(ids);
+    }
+
+    private void assertPositions(int found, int... positions) {
+        assertEquals(positions.length, found);
+        for(int i = 0; i < positions.length; i++) {
+            assertEquals(positions[i], mBatch.getDeletePosition(i));
+        }
+    }
+
+    public void testFindsAllDeletesWithAscendingIds() {
+        mBatch.addBackwards(9, false);
+        mBatch.addBackwards(5, false);
+        mBatch.addBackwards(2, false);
+        assertPositions(mBatch.findDeletePositions(ascending(10)), 1, 4, 8);
+    }
+
+    public void testFindsAllDeletesWithDescendingIds() {
+        mBatch.addBackwards(2, false);
+        mBatch.addBackwards(9, false);
+        mBatch.addBackwards(5, false);
+        Items items = new Items(10, 9, 8, 7, 6, 5, 4, 3, 2, 1);
+        assertPositions(mBatch.findDeletePositions(items), 1, 5, 8);
+    }
+
+    public void testStopsAfterTheLastDelete() {
+        mBatch.addBackwards(3, false);
+        mBatch.addBackwards(1, false);
+        Items items = ascending(1000);
+        assertPositions(mBatch.findDeletePositions(items), 0, 2);
+        assertEquals(3, items.reads);
+    }
+
+    public void testIgnoresMissingItems() {
+        mBatch.addBackwards(42, false);
+        mBatch.addBackwards(4, false);
+        assertPositions(mBatch.findDeletePositions(ascending(10)), 3);
+    }
+
+    public void testLastCommandPerItemWins() {
+        // Submitted: delete 1, restore 1, restore 2, delete 2, delete 3 - added from the last on
+        mBatch.addBackwards(3, false);
+        mBatch.addBackwards(2, false);
+        mBatch.addBackwards(2, true);
+        mBatch.addBackwards(1, true);
+        mBatch.addBackwards(1, false);
+        assertEquals(2, mBatch.getDeleteCount());
+        assertEquals(2, mBatch.getDeleteId(0));
+        assertEquals(3, mBatch.getDeleteId(1));
+        assertEquals(1, mBatch.getRestoreCount());
+        assertTrue(mBatch.isRestored(1));
+        assertFalse(mBatch.isRestored(2));
+    }
+
+    public void testIdsStaySortedBeyondTheInitialCapacity() {
+        for(long id = 40; id > 0; id--) {
+            mBatch.addBackwards(id * 7 % 41, id % 2 == 0);
+        }
+        assertEquals(20, mBatch.getRestoreCount());
+        assertEquals(20, mBatch.getDeleteCount());
+        long[] restores = mBatch.getRestoreIds();
+        for(int i = 1; i < mBatch.getRestoreCount(); i++) {
+            assertTrue(restores[i - 1] < restores[i]);
+        }
+        for(int i = 1; i < mBatch.getDeleteCount(); i++) {
+            assertTrue(mBatch.getDeleteId(i - 1) < mBatch.getDeleteId(i));
+        }
+        Items items = ascending(41);
+        assertEquals(20, mBatch.findDeletePositions(items));
+    }
+
+    public void testClearDropsAllCommands() {
+        mBatch.addBackwards(1, false);
+        mBatch.addBackwards(2, true);
+        mBatch.clear();
+        assertEquals(0, mBatch.getDeleteCount());
+        assertEquals(0, mBatch.getRestoreCount());
+        assertEquals(0, mBatch.findDeletePositions(ascending(10)));
+    }
+
+}
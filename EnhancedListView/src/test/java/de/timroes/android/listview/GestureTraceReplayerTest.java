@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listview;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Replays the trace {@code swipes.trace} against the {@link SwipeDismissLogic}. The trace has been
+ * written in the format of {@link GestureTraceFormat} for a list 1080 pixels wide, with a touch
+ * slop of 16 pixels and fling velocities between 150 and 24000 pixels per second. It contains
+ * these gestures in this order:
+ * <ol>
+ *     <li>A slow drag 640 pixels to the right, with two samples in every move event.</li>
+ *     <li>A slow drag 200 pixels to the left.</li>
+ *     <li>A fling 300 pixels to the right within 30 milliseconds.</li>
+ *     <li>A tap.</li>
+ *     <li>A vertical scroll, that moves 10 pixels to the right.</li>
+ * </ol>
+ */
+public class GestureTraceReplayerTest extends TestCase {
+
+    private List<GestureTraceReplayer.Gesture> replay(boolean useRecordedVelocity) throws IOException {
+        InputStream in = getClass().getResourceAsStream("swipes.trace");
+        assertNotNull("swipes.trace not found", in);
+        try {
+            return new GestureTraceReplayer(in).setUseRecordedVelocity(useRecordedVelocity).replay();
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testAllGesturesAreReplayed() throws IOException {
+        List<GestureTraceReplayer.Gesture> gestures = replay(true);
+        assertEquals(5, gestures.size());
+        for(GestureTraceReplayer.Gesture gesture : gestures) {
+            assertEquals(1080, gesture.viewWidth);
+            assertEquals(40, gesture.itemCount);
+        }
+    }
+
+    public void testSlowDragBeyondHalfTheWidthDismisses() throws IOException {
+        GestureTraceReplayer.Gesture gesture = replay(true).get(0);
+        assertTrue(gesture.swiping);
+        assertEquals(SwipeDismissLogic.DISMISS_RIGHT, gesture.dismiss);
+        assertEquals(640f, gesture.deltaX, 0f);
+        assertEquals(64, gesture.sampleCount);
+        assertEquals(520, gesture.duration);
+        assertTrue(gesture.recordedVelocity);
+    }
+
+    public void testShortDragDoesNotDismiss() throws IOException {
+        GestureTraceReplayer.Gesture gesture = replay(true).get(1);
+        assertTrue(gesture.swiping);
+        assertEquals(SwipeDismissLogic.DISMISS_NONE, gesture.dismiss);
+        assertEquals(-200f, gesture.deltaX, 0f);
+    }
+
+    public void testFlingDismisses() throws IOException {
+        GestureTraceReplayer.Gesture gesture = replay(true).get(2);
+        assertTrue(gesture.swiping);
+        assertEquals(SwipeDismissLogic.DISMISS_RIGHT, gesture.dismiss);
+        assertEquals(300f, gesture.deltaX, 0f);
+        assertEquals(8000f, gesture.velocityX, 0f);
+    }
+
+    public void testFlingDismissesWithEstimatedVelocity() throws IOException {
+        GestureTraceReplayer.Gesture gesture = replay(false).get(2);
+        assertFalse(gesture.recordedVelocity);
+        assertEquals(SwipeDismissLogic.DISMISS_RIGHT, gesture.dismiss);
+        // 100 pixels every 10 milliseconds, then the finger rests for 5 milliseconds
+        assertTrue("velocity " + gesture.velocityX, gesture.velocityX > 5000f);
+    }
+
+    public void testTapIsNoSwipe() throws IOException {
+        GestureTraceReplayer.Gesture gesture = replay(true).get(3);
+        assertFalse(gesture.swiping);
+        assertEquals(SwipeDismissLogic.DISMISS_NONE, gesture.dismiss);
+        assertEquals(0, gesture.sampleCount);
+        assertEquals(80, gesture.duration);
+    }
+
+    public void testVerticalScrollWithinSlopIsNoSwipe() throws IOException {
+        GestureTraceReplayer.Gesture gesture = replay(true).get(4);
+        assertFalse(gesture.swiping);
+        assertEquals(SwipeDismissLogic.DISMISS_NONE, gesture.dismiss);
+        assertEquals(10f, gesture.deltaX, 0f);
+    }
+
+    public void testReplayIsDeterministic() throws IOException {
+        List<GestureTraceReplayer.Gesture> first = replay(false);
+        List<GestureTraceReplayer.Gesture> second = replay(false);
+        assertEquals(first.size(), second.size());
+        for(int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).toString(), second.get(i).toString());
+        }
+    }
+
+    public void testRejectsOtherFiles() {
+        try {
+            new GestureTraceReplayer(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 0, 1 })).replay();
+            fail("Expected an IOException");
+        } catch(IOException e) {
+            // Expected
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listviewdemo;
+
+import android.os.Debug;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.widget.ArrayAdapter;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.timroes.android.listview.EnhancedListView;
+
+/**
+ * Measures the main thread time a dismiss costs, while 1, 100 or 500 dismisses are in flight.
+ * All dismissed items are below the visible rows, so they don't animate and are committed
+ * together in the next message. The measured time covers issuing all deletes and their commit,
+ * but no animation frames. The median of several runs per burst size is written to the log
+ * with the tag {@value #TAG}:
+ * <pre>adb logcat -s DismissBurstBenchmark</pre>
+ */
+public class DismissBurstBenchmark extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    private static final String TAG = "DismissBurstBenchmark";
+
+    private static final int ITEM_COUNT = 2000;
+    private static final int[] BURST_SIZES = { 1, 100, 500 };
+    private static final int WARMUP_RUNS = 3;
+    private static final int RUNS = 9;
+
+    private EnhancedListView mListView;
+    private volatile CountDownLatch mCommitted;
+
+    public DismissBurstBenchmark() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mListView = (EnhancedListView) getActivity().findViewById(R.id.list);
+        final String[] items = new String[ITEM_COUNT];
+        for(int i = 0; i < ITEM_COUNT; i++) {
+            items[i] = "Item " + i;
+        }
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mListView.setAdapter(new ArrayAdapter<String>(getActivity(), android.R.layout.simple_list_item_1, items));
+                mListView.setUndoStyle(EnhancedListView.UndoStyle.SINGLE_POPUP);
+                mListView.setDismissCallback(new EnhancedListView.OnDismissCallback() {
+                    @Override
+                    public EnhancedListView.Undoable onDismiss(EnhancedListView listView, int position) {
+                        // The items stay in the adapter, so only the cost of the list is measured
+                        mCommitted.countDown();
+                        return null;
+                    }
+                });
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mListView = null;
+        super.tearDown();
+    }
+
+    public void testPerDismissCost() throws InterruptedException {
+
+        for(int burst : BURST_SIZES) {
+            for(int i = 0; i < WARMUP_RUNS; i++) {
+                runBurst(burst);
+            }
+            long[] times = new long[RUNS];
+            for(int i = 0; i < RUNS; i++) {
+                times[i] = runBurst(burst);
+            }
+            Arrays.sort(times);
+            Log.i(TAG, String.format("%d dismisses in flight: %.2f us per dismiss (median of %d runs)",
+                    burst, times[RUNS / 2] / 1000f / burst, RUNS));
+        }
+
+    }
+
+    /**
+     * Deletes the given number of items below the visible rows and waits for their commit.
+     *
+     * @param burst The number of items to delete at once.
+     * @return The main thread CPU time in nanoseconds, that the deletes and their commit took.
+     */
+    private long runBurst(final int burst) throws InterruptedException {
+
+        final long[] start = new long[1];
+        mCommitted = new CountDownLatch(burst);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                start[0] = Debug.threadCpuTimeNanos();
+                int first = mListView.getLastVisiblePosition() + 1;
+                for(int i = 0; i < burst; i++) {
+                    mListView.delete(first + i);
+                }
+            }
+        });
+        assertTrue("The dismisses haven't been committed", mCommitted.await(10, TimeUnit.SECONDS));
+
+        final long[] end = new long[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                end[0] = Debug.threadCpuTimeNanos();
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+        return end[0] - start[0];
+
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listviewdemo;
+
+import android.test.ActivityInstrumentationTestCase2;
+
+import java.lang.ref.WeakReference;
+
+import de.timroes.android.listview.EnhancedListView;
+
+/**
+ * Checks, that the list can be garbage collected right after its activity finished, while an
+ * item is still sliding out and its undo popup waits to be hidden.
+ */
+public class ListLeakTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    public ListLeakTest() {
+        super(MainActivity.class);
+    }
+
+    public void testListIsCollectedAfterFinish() throws InterruptedException {
+
+        WeakReference<EnhancedListView> list = dismissAndFinish();
+        getInstrumentation().waitForIdleSync();
+
+        for(int i = 0; i < 20 && list.get() != null; i++) {
+            Runtime.getRuntime().gc();
+            System.runFinalization();
+            Thread.sleep(100);
+        }
+        assertNull("The list is still reachable after its activity finished", list.get());
+
+    }
+
+    /**
+     * Dismisses the first item and finishes the activity without waiting for the dismiss. This
+     * is a method of its own, so no local variable of the test keeps the list alive.
+     *
+     * @return A weak reference to the list.
+     */
+    private WeakReference<EnhancedListView> dismissAndFinish() {
+
+        final MainActivity activity = getActivity();
+        final EnhancedListView list = (EnhancedListView) activity.findViewById(R.id.list);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                list.delete(0);
+                activity.finish();
+            }
+        });
+        // Drop the reference of the test case, so only the list itself could keep the activity
+        setActivity(null);
+        return new WeakReference<EnhancedListView>(list);
+
+    }
+
+}
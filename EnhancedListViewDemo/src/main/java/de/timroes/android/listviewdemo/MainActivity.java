@@ -35,21 +35,29 @@ import android.widget.CompoundButton;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import de.timroes.android.listview.EnhancedListView;
 
 public class MainActivity extends ActionBarActivity {
 
     private enum ControlGroup {
-		SWIPE_TO_DISMISS
+		SWIPE_TO_DISMISS,
+		STRESS
     }
 
     private static final String PREF_UNDO_STYLE = "de.timroes.android.listviewdemo.UNDO_STYLE";
     private static final String PREF_SWIPE_TO_DISMISS = "de.timroes.android.listviewdemo.SWIPE_TO_DISMISS";
     private static final String PREF_SWIPE_DIRECTION = "de.timroes.android.listviewdemo.SWIPE_DIRECTION";
     private static final String PREF_SWIPE_LAYOUT = "de.timroes.android.listviewdemo.SWIPE_LAYOUT";
+    private static final String PREF_STRESS = "de.timroes.android.listviewdemo.STRESS";
+    private static final String PREF_ITEM_COUNT = "de.timroes.android.listviewdemo.ITEM_COUNT";
+    private static final String PREF_BURST_SIZE = "de.timroes.android.listviewdemo.BURST_SIZE";
+
+    private static final int DEFAULT_ITEM_COUNT = 40;
+
+    /**
+     * Pause of the auto swiper between two bursts.
+     */
+    private static final long AUTO_SWIPE_PAUSE = 1500;
 
     private EnhancedListAdapter mAdapter;
     private EnhancedListView mListView;
@@ -57,6 +65,35 @@ public class MainActivity extends ActionBarActivity {
 
     private Bundle mUndoStylePref;
     private Bundle mSwipeDirectionPref;
+    private Bundle mItemCountPref;
+    private Bundle mBurstSizePref;
+
+    private StressMonitor mStressMonitor;
+    private boolean mStressMode;
+    private int mItemCount = DEFAULT_ITEM_COUNT;
+    private int mBurstSize;
+    private boolean mAutoSwiping;
+
+    /**
+     * Deletes the configured number of items, starting at the first visible item, via
+     * {@link EnhancedListView#delete(int)} at once, then pauses for {@link #AUTO_SWIPE_PAUSE}
+     * milliseconds and starts the next burst. Visible items slide out, all others are dismissed
+     * without animation, but all of them are committed together.
+     */
+    private final Runnable mAutoSwiper = new Runnable() {
+        @Override
+        public void run() {
+            if(!mAutoSwiping) {
+                return;
+            }
+            int first = mListView.getFirstVisiblePosition();
+            int last = Math.min(first + mBurstSize, mAdapter.getCount());
+            for(int position = first; position < last; position++) {
+                mListView.delete(position);
+            }
+            mListView.postDelayed(this, AUTO_SWIPE_PAUSE);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -71,6 +108,7 @@ public class MainActivity extends ActionBarActivity {
 
             @Override
             public void onDrawerOpened(View view) {
+                setAutoSwiping(false);
                 mListView.discardUndo();
                 supportInvalidateOptionsMenu();
             }
@@ -89,7 +127,8 @@ public class MainActivity extends ActionBarActivity {
         mListView = (EnhancedListView)findViewById(R.id.list);
 
         mAdapter = new EnhancedListAdapter();
-        mAdapter.resetItems();
+        mItemCount = getItemCountPref();
+        mAdapter.resetItems(mItemCount);
 
         mListView.setAdapter(mAdapter);
 
@@ -112,6 +151,18 @@ public class MainActivity extends ActionBarActivity {
         });
         swipeLayout.setChecked(getPreferences(MODE_PRIVATE).getBoolean(PREF_SWIPE_LAYOUT, false));
 
+        CheckBox stress = (CheckBox) findViewById(R.id.pref_stress);
+        stress.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                getPreferences(MODE_PRIVATE).edit().putBoolean(PREF_STRESS, isChecked).commit();
+                enableControlGroup(ControlGroup.STRESS, isChecked);
+            }
+        });
+        stress.setChecked(getPreferences(MODE_PRIVATE).getBoolean(PREF_STRESS, false));
+
+        mStressMonitor = new StressMonitor(mListView, (TextView) findViewById(R.id.stress_overlay));
+
         mUndoStylePref = new Bundle();
         mUndoStylePref.putInt(DialogPicker.DIALOG_TITLE, R.string.pref_undo_style_title);
         mUndoStylePref.putInt(DialogPicker.DIALOG_ITEMS_ID, R.array.undo_style);
@@ -122,7 +173,18 @@ public class MainActivity extends ActionBarActivity {
         mSwipeDirectionPref.putInt(DialogPicker.DIALOG_ITEMS_ID, R.array.swipe_direction);
         mSwipeDirectionPref.putString(DialogPicker.DIALOG_PREF_KEY, PREF_SWIPE_DIRECTION);
 
+        mItemCountPref = new Bundle();
+        mItemCountPref.putInt(DialogPicker.DIALOG_TITLE, R.string.pref_item_count_title);
+        mItemCountPref.putInt(DialogPicker.DIALOG_ITEMS_ID, R.array.item_count);
+        mItemCountPref.putString(DialogPicker.DIALOG_PREF_KEY, PREF_ITEM_COUNT);
+
+        mBurstSizePref = new Bundle();
+        mBurstSizePref.putInt(DialogPicker.DIALOG_TITLE, R.string.pref_burst_size_title);
+        mBurstSizePref.putInt(DialogPicker.DIALOG_ITEMS_ID, R.array.burst_size);
+        mBurstSizePref.putString(DialogPicker.DIALOG_PREF_KEY, PREF_BURST_SIZE);
+
         enableControlGroup(ControlGroup.SWIPE_TO_DISMISS, getPreferences(MODE_PRIVATE).getBoolean(PREF_SWIPE_TO_DISMISS, false));
+        enableControlGroup(ControlGroup.STRESS, getPreferences(MODE_PRIVATE).getBoolean(PREF_STRESS, false));
 
         // Set the callback that handles dismisses.
         mListView.setDismissCallback(new de.timroes.android.listview.EnhancedListView.OnDismissCallback() {
@@ -138,13 +200,19 @@ public class MainActivity extends ActionBarActivity {
             @Override
             public EnhancedListView.Undoable onDismiss(EnhancedListView listView, final int position) {
 
-                final String item = (String) mAdapter.getItem(position);
+                final int item = mAdapter.getItemNumber(position);
                 mAdapter.remove(position);
                 return new EnhancedListView.Undoable() {
                     @Override
                     public void undo() {
                         mAdapter.insert(position, item);
                     }
+
+                    @Override
+                    public void undoAt(int currentPosition) {
+                        // Called with the corrected position, if older deletions are undone first
+                        mAdapter.insert(currentPosition, item);
+                    }
                 };
             }
         });
@@ -182,6 +250,10 @@ public class MainActivity extends ActionBarActivity {
                 findViewById(R.id.pref_swipedirection).setEnabled(enabled);
                 findViewById(R.id.pref_swipelayout).setEnabled(enabled);
                 break;
+            case STRESS:
+                findViewById(R.id.pref_item_count).setEnabled(enabled);
+                findViewById(R.id.pref_burst_size).setEnabled(enabled);
+                break;
         }
     }
 
@@ -198,6 +270,7 @@ public class MainActivity extends ActionBarActivity {
             default: style = EnhancedListView.UndoStyle.SINGLE_POPUP; break;
             case 1: style = EnhancedListView.UndoStyle.MULTILEVEL_POPUP; break;
             case 2: style = EnhancedListView.UndoStyle.COLLAPSED_POPUP; break;
+            case 3: style = EnhancedListView.UndoStyle.INLINE; break;
         }
         mListView.setUndoStyle(style);
 
@@ -222,16 +295,77 @@ public class MainActivity extends ActionBarActivity {
             mListView.disableSwipeToDismiss();
         }
 
+        // Enable or disable the stress test
+        mStressMode = prefs.getBoolean(PREF_STRESS, false);
+        mBurstSize = getResources().getIntArray(R.array.burst_size_values)[prefs.getInt(PREF_BURST_SIZE, 0)];
+        int itemCount = getItemCountPref();
+        if(itemCount != mItemCount) {
+            mItemCount = itemCount;
+            mListView.discardUndo();
+            mAdapter.resetItems(mItemCount);
+        }
+        mAdapter.setHeavyRows(mStressMode);
+        findViewById(R.id.stress_overlay).setVisibility(mStressMode ? View.VISIBLE : View.GONE);
+        if(mStressMode) {
+            mStressMonitor.start();
+        } else {
+            setAutoSwiping(false);
+            mStressMonitor.stop();
+        }
+
+    }
+
+    /**
+     * Returns the number of items selected for the list. Only in stress test mode the list can
+     * have more than the default number of items.
+     *
+     * @return The number of items.
+     */
+    private int getItemCountPref() {
+        SharedPreferences prefs = getPreferences(MODE_PRIVATE);
+        if(!prefs.getBoolean(PREF_STRESS, false)) {
+            return DEFAULT_ITEM_COUNT;
+        }
+        return getResources().getIntArray(R.array.item_count_values)[prefs.getInt(PREF_ITEM_COUNT, 0)];
+    }
+
+    /**
+     * Starts or stops the auto swiper.
+     *
+     * @param autoSwiping Whether the auto swiper should run.
+     */
+    private void setAutoSwiping(boolean autoSwiping) {
+        if(mAutoSwiping == autoSwiping) {
+            return;
+        }
+        mAutoSwiping = autoSwiping;
+        mListView.removeCallbacks(mAutoSwiper);
+        if(autoSwiping) {
+            mListView.post(mAutoSwiper);
+        }
+        supportInvalidateOptionsMenu();
     }
 
     @Override
     protected void onStop() {
+        setAutoSwiping(false);
+        if(mStressMonitor != null) {
+            mStressMonitor.stop();
+        }
         if(mListView != null) {
             mListView.discardUndo();
         }
         super.onStop();
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if(mStressMode) {
+            mStressMonitor.start();
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -247,6 +381,10 @@ public class MainActivity extends ActionBarActivity {
         menu.findItem(R.id.action_settings).setVisible(!drawer);
         menu.findItem(R.id.action_done).setVisible(drawer);
 
+        MenuItem autoSwipe = menu.findItem(R.id.action_auto_swipe);
+        autoSwipe.setVisible(mStressMode && !drawer);
+        autoSwipe.setTitle(mAutoSwiping ? R.string.action_auto_swipe_stop : R.string.action_auto_swipe_start);
+
         return super.onPrepareOptionsMenu(menu);
 
     }
@@ -260,13 +398,16 @@ public class MainActivity extends ActionBarActivity {
             case R.id.action_done:
                 mDrawerLayout.closeDrawers();
                 return true;
+            case R.id.action_auto_swipe:
+                setAutoSwiping(!mAutoSwiping);
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
     public void resetItems(View view) {
         mListView.discardUndo();
-        mAdapter.resetItems();
+        mAdapter.resetItems(mItemCount);
         mDrawerLayout.closeDrawers();
     }
 
@@ -282,25 +423,61 @@ public class MainActivity extends ActionBarActivity {
         picker.show(getSupportFragmentManager(), "SWIPE_DIR_PICKER");
     }
 
+    public void selectItemCount(View view) {
+        DialogPicker picker = new DialogPicker();
+        picker.setArguments(mItemCountPref);
+        picker.show(getSupportFragmentManager(), "ITEM_COUNT_PICKER");
+    }
+
+    public void selectBurstSize(View view) {
+        DialogPicker picker = new DialogPicker();
+        picker.setArguments(mBurstSizePref);
+        picker.show(getSupportFragmentManager(), "BURST_SIZE_PICKER");
+    }
+
     private class EnhancedListAdapter extends BaseAdapter {
 
-        private List<String> mItems = new ArrayList<String>();
+        // The stress test can have up to a million items, so only store the item numbers
+        // and create the labels when the items are shown.
+        private int[] mItems = new int[0];
+        private int mCount;
+        private boolean mHeavyRows;
 
-        void resetItems() {
-            mItems.clear();
-            for(int i = 1; i <= 40; i++) {
-                mItems.add("Item " + i);
+        void resetItems(int count) {
+            mItems = new int[count];
+            for(int i = 0; i < count; i++) {
+                mItems[i] = i + 1;
             }
+            mCount = count;
             notifyDataSetChanged();
         }
 
+        void setHeavyRows(boolean heavyRows) {
+            if(mHeavyRows != heavyRows) {
+                mHeavyRows = heavyRows;
+                notifyDataSetChanged();
+            }
+        }
+
+        int getItemNumber(int position) {
+            return mItems[position];
+        }
+
         public void remove(int position) {
-            mItems.remove(position);
+            System.arraycopy(mItems, position + 1, mItems, position, mCount - position - 1);
+            mCount--;
             notifyDataSetChanged();
         }
 
-        public void insert(int position, String item) {
-            mItems.add(position, item);
+        public void insert(int position, int item) {
+            if(mCount == mItems.length) {
+                int[] items = new int[Math.max(mCount * 2, 16)];
+                System.arraycopy(mItems, 0, items, 0, mCount);
+                mItems = items;
+            }
+            System.arraycopy(mItems, position, mItems, position + 1, mCount - position);
+            mItems[position] = item;
+            mCount++;
             notifyDataSetChanged();
         }
 
@@ -311,7 +488,7 @@ public class MainActivity extends ActionBarActivity {
          */
         @Override
         public int getCount() {
-            return mItems.size();
+            return mCount;
         }
 
         /**
@@ -323,7 +500,7 @@ public class MainActivity extends ActionBarActivity {
          */
         @Override
         public Object getItem(int position) {
-            return mItems.get(position);
+            return "Item " + mItems[position];
         }
 
         /**
@@ -337,6 +514,16 @@ public class MainActivity extends ActionBarActivity {
             return position;
         }
 
+        @Override
+        public int getViewTypeCount() {
+            return 2;
+        }
+
+        @Override
+        public int getItemViewType(int position) {
+            return mHeavyRows ? 1 : 0;
+        }
+
         /**
          * Get a View that displays the data at the specified position in the data set. You can either
          * create a View manually or inflate it from an XML layout file. When the View is inflated, the
@@ -360,7 +547,8 @@ public class MainActivity extends ActionBarActivity {
 
             ViewHolder holder;
             if(convertView == null) {
-                convertView = getLayoutInflater().inflate(R.layout.list_item, parent, false);
+                convertView = getLayoutInflater().inflate(
+                        mHeavyRows ? R.layout.list_item_heavy : R.layout.list_item, parent, false);
                 // Clicking the delete icon, will read the position of the item stored in
                 // the tag and delete it from the list. So we don't need to generate a new
                 // onClickListener every time the content of this view changes.
@@ -375,6 +563,8 @@ public class MainActivity extends ActionBarActivity {
                 holder = new ViewHolder();
                 assert convertView != null;
                 holder.mTextView = (TextView) convertView.findViewById(R.id.text);
+                holder.mSubtitleView = (TextView) convertView.findViewById(R.id.subtitle);
+                holder.mDetailView = (TextView) convertView.findViewById(R.id.detail);
 
                 convertView.setTag(holder);
             } else {
@@ -382,13 +572,19 @@ public class MainActivity extends ActionBarActivity {
             }
 
             holder.position = position;
-            holder.mTextView.setText(mItems.get(position));
+            holder.mTextView.setText("Item " + mItems[position]);
+            if(holder.mSubtitleView != null) {
+                holder.mSubtitleView.setText("Position " + position);
+                holder.mDetailView.setText(Integer.toHexString(mItems[position]));
+            }
 
             return convertView;
         }
 
         private class ViewHolder {
             TextView mTextView;
+            TextView mSubtitleView;
+            TextView mDetailView;
             int position;
         }
 
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 Tim Roes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.timroes.android.listviewdemo;
+
+import android.os.Build;
+import android.view.Choreographer;
+import android.widget.TextView;
+
+import de.timroes.android.listview.EnhancedListView;
+
+/**
+ * Shows the frame times of the application together with the number of pending dismisses and
+ * stored undos of an {@link EnhancedListView} in an overlay. Frame times are measured between
+ * two vsync callbacks of the {@link android.view.Choreographer}, so they are only available on
+ * Android 4.1 and above. On older versions only the list statistics are shown.
+ */
+class StressMonitor {
+
+    /**
+     * Receives a callback for every frame. This is a separate class, so that
+     * {@link android.view.Choreographer} is never loaded on devices below API level 16.
+     */
+    private class FrameCallback implements Choreographer.FrameCallback {
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if(!mRunning) {
+                return;
+            }
+            onFrame(frameTimeNanos);
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void start() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+    }
+
+    private static final int FRAME_WINDOW = 120;
+    private static final long JANK_THRESHOLD_NANOS = 17000000L;
+    private static final int UPDATE_INTERVAL_FRAMES = 15;
+    private static final long UPDATE_INTERVAL_MILLIS = 250;
+
+    private final EnhancedListView mListView;
+    private final TextView mOverlay;
+
+    private final long[] mFrameTimes = new long[FRAME_WINDOW];
+    private int mFrameIndex;
+    private int mFrameCount;
+    private int mJankFrames;
+    private int mFramesSinceUpdate;
+    private long mLastFrameTime;
+
+    private boolean mRunning;
+    private FrameCallback mFrameCallback;
+
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if(mRunning) {
+                updateOverlay();
+                mOverlay.postDelayed(this, UPDATE_INTERVAL_MILLIS);
+            }
+        }
+    };
+
+    StressMonitor(EnhancedListView listView, TextView overlay) {
+        mListView = listView;
+        mOverlay = overlay;
+    }
+
+    /**
+     * Starts measuring and updating the overlay.
+     */
+    void start() {
+        if(mRunning) {
+            return;
+        }
+        mRunning = true;
+        mFrameIndex = mFrameCount = mJankFrames = mFramesSinceUpdate = 0;
+        mLastFrameTime = 0;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if(mFrameCallback == null) {
+                mFrameCallback = new FrameCallback();
+            }
+            mFrameCallback.start();
+        } else {
+            mOverlay.post(mUpdateRunnable);
+        }
+        updateOverlay();
+    }
+
+    /**
+     * Stops measuring. The overlay keeps showing the last values.
+     */
+    void stop() {
+        if(!mRunning) {
+            return;
+        }
+        mRunning = false;
+        if(mFrameCallback != null) {
+            mFrameCallback.stop();
+        }
+        mOverlay.removeCallbacks(mUpdateRunnable);
+    }
+
+    private void onFrame(long frameTimeNanos) {
+        if(mLastFrameTime > 0) {
+            long frameTime = frameTimeNanos - mLastFrameTime;
+            mFrameTimes[mFrameIndex] = frameTime;
+            mFrameIndex = (mFrameIndex + 1) % FRAME_WINDOW;
+            mFrameCount = Math.min(mFrameCount + 1, FRAME_WINDOW);
+            if(frameTime > JANK_THRESHOLD_NANOS) {
+                mJankFrames++;
+            }
+        }
+        mLastFrameTime = frameTimeNanos;
+
+        // Don't update the text every frame, the overlay itself shouldn't cost frames
+        if(++mFramesSinceUpdate >= UPDATE_INTERVAL_FRAMES) {
+            mFramesSinceUpdate = 0;
+            updateOverlay();
+        }
+    }
+
+    private void updateOverlay() {
+
+        int pending = mListView.getPendingDismissCount();
+        int undos = mListView.getUndoManager().getUndoCount();
+        int items = mListView.getCount();
+
+        if(mFrameCount == 0) {
+            mOverlay.setText(mOverlay.getContext().getString(R.string.stress_overlay_no_frames,
+                    pending, undos, items));
+            return;
+        }
+
+        long sum = 0;
+        long max = 0;
+        for(int i = 0; i < mFrameCount; i++) {
+            sum += mFrameTimes[i];
+            max = Math.max(max, mFrameTimes[i]);
+        }
+        long last = mFrameTimes[(mFrameIndex - 1 + FRAME_WINDOW) % FRAME_WINDOW];
+
+        mOverlay.setText(mOverlay.getContext().getString(R.string.stress_overlay,
+                last / 1000000f, sum / (float) mFrameCount / 1000000f, max / 1000000f,
+                mJankFrames, pending, undos, items));
+    }
+
+}